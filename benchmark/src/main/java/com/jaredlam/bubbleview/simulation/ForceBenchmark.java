@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One evaluation of a {@link ManyBodyForce}, summing over every pair or approximated with the
+ * Barnes-Hut quadtree, and a full step with the usual force fields on.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForceBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    public int count;
+
+    @Param({"direct", "barnesHut"})
+    public String method;
+
+    private BubbleSimulation mSimulation;
+    private ManyBodyForce mManyBody;
+    private float[] mAx;
+    private float[] mAy;
+
+    @Setup
+    public void setUp() {
+        mSimulation = Scenes.scattered(count, 0.3f, 42);
+        mManyBody = new ManyBodyForce(-50);
+        mManyBody.setBarnesHutMinBubbles("direct".equals(method) ? Integer.MAX_VALUE : 0);
+        mAx = new float[count];
+        mAy = new float[count];
+        mSimulation.addForce(new CenterGravity(0.1f));
+        mSimulation.addForce(mManyBody);
+        mSimulation.addForce(new LinearDrag(1));
+    }
+
+    @Benchmark
+    public float[] manyBody() {
+        Arrays.fill(mAx, 0);
+        Arrays.fill(mAy, 0);
+        mManyBody.apply(mSimulation, mAx, mAy);
+        return mAx;
+    }
+
+    @Benchmark
+    public BubbleSimulation step() {
+        mSimulation.step(Scenes.FRAME_NANOS);
+        return mSimulation;
+    }
+}
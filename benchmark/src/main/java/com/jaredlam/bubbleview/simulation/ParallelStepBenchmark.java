@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full step spread over a number of workers, with the threshold at zero so every count runs the
+ * parallel path. One worker is the single threaded step, for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelStepBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    public int count;
+
+    @Param({"1", "2", "4"})
+    public int workers;
+
+    private BubbleSimulation mSimulation;
+
+    @Setup
+    public void setUp() {
+        mSimulation = Scenes.scattered(count, 0.3f, 42);
+        mSimulation.setParallelism(workers, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mSimulation.releaseWorkers();
+    }
+
+    @Benchmark
+    public BubbleSimulation step() {
+        mSimulation.step(Scenes.FRAME_NANOS);
+        return mSimulation;
+    }
+}
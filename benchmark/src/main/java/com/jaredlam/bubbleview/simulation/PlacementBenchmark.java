@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The initial placement BubbleLayout runs from onLayout when it gets a new size, placing every
+ * bubble again. The packing does not depend on the size of the world, so only the count varies;
+ * the largest counts show how it scales with the length of the pack's outline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlacementBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int count;
+
+    private BubbleSimulation mSimulation;
+    private BubblePlacement mPlacement;
+    private int[] mOrder;
+    private float mSide;
+
+    @Setup
+    public void setUp() {
+        mSimulation = new BubbleSimulation();
+        mSide = Scenes.addBubbles(mSimulation, count, 0.3f, 42);
+        mPlacement = new BubblePlacement();
+        mPlacement.setPadding(10);
+        mOrder = new int[count];
+        for (int i = 0; i < count; i++) {
+            mOrder[i] = i;
+        }
+    }
+
+    @Benchmark
+    public BubbleSimulation place() {
+        mPlacement.place(mSimulation, mOrder, count, mSide / 2, mSide / 2, true);
+        return mSimulation;
+    }
+}
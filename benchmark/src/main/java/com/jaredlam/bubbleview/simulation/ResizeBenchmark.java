@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Grows the bubble nearest the center of a solved, sleeping arrangement to 1.8 times its radius
+ * over 300ms and steps until everything sleeps again. Only its neighbours wake up, so the number
+ * of steps stays about the same for every count; what grows is the cost of a step itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResizeBenchmark {
+
+    private static final long FRAME_NANOS = 16000000L;
+    private static final int MAX_FRAMES = 3000;
+
+    @Param({"100", "1000", "3000"})
+    public int count;
+
+    private BubbleSimulation mSettled;
+    private int mCenterBubble;
+
+    @Setup
+    public void setUp() {
+        BubbleSimulation simulation = new BubbleSimulation();
+        float side = Scenes.addBubbles(simulation, count, 0.5f, 42);
+        float[] radii = new float[count];
+        for (int i = 0; i < count; i++) {
+            radii[i] = simulation.getRadius(i);
+        }
+        BubbleSolver solver = new BubbleSolver();
+        solver.setPadding(4);
+        BubbleArrangement arrangement = solver.solve(radii, count, side, side);
+
+        mSettled = new BubbleSimulation();
+        mSettled.setBounds(0, 0, side, side);
+        float nearest = Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            mSettled.addBubble(radii[i], 0, 0);
+            mSettled.setBubbleState(i, arrangement.getX(i), arrangement.getY(i), 0, 0, 0, true);
+            float dx = arrangement.getX(i) - side / 2;
+            float dy = arrangement.getY(i) - side / 2;
+            if (dx * dx + dy * dy < nearest) {
+                nearest = dx * dx + dy * dy;
+                mCenterBubble = i;
+            }
+        }
+    }
+
+    @Benchmark
+    public int growAndSettle() {
+        BubbleSimulation simulation = mSettled.copy();
+        simulation.animateBubbleRadius(mCenterBubble, simulation.getRadius(mCenterBubble) * 1.8f, 300000000L);
+        int frames = 0;
+        while (simulation.isMoving() && frames < MAX_FRAMES) {
+            simulation.step(FRAME_NANOS);
+            frames++;
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import java.util.Random;
+
+/**
+ * Builds reproducible simulations for the benchmarks. Density is the share of the world covered by
+ * bubbles, so the same density keeps roughly the same number of contacts per bubble at any count.
+ */
+class Scenes {
+
+    static final long FRAME_NANOS = 16L * 1000 * 1000;
+
+    private static final float MIN_RADIUS = 20f;
+    private static final float MAX_RADIUS = 60f;
+    private static final float MIN_SPEED = 100f;
+    private static final float MAX_SPEED = 300f;
+
+    /**
+     * Adds {@code count} unplaced bubbles with random radii, directions and speeds, and sizes the
+     * bounds for the given density. Returns the side of the square world.
+     */
+    static float addBubbles(BubbleSimulation simulation, int count, float density, long seed) {
+        Random random = new Random(seed);
+        double area = 0;
+        for (int i = 0; i < count; i++) {
+            float radius = MIN_RADIUS + random.nextFloat() * (MAX_RADIUS - MIN_RADIUS);
+            float speed = MIN_SPEED + random.nextFloat() * (MAX_SPEED - MIN_SPEED);
+            simulation.addBubble(radius, random.nextDouble() * 2 * Math.PI, speed);
+            area += Math.PI * radius * radius;
+        }
+        float side = (float) Math.sqrt(area / density);
+        simulation.setBounds(0, 0, side, side);
+        // Keep every bubble awake so each frame does the full amount of work.
+        simulation.setSleepThreshold(0, Integer.MAX_VALUE);
+        return side;
+    }
+
+    /**
+     * Returns a simulation with every bubble scattered at random inside the bounds.
+     */
+    static BubbleSimulation scattered(int count, float density, long seed) {
+        BubbleSimulation simulation = new BubbleSimulation();
+        float side = addBubbles(simulation, count, density, seed);
+        Random random = new Random(seed + 1);
+        for (int i = 0; i < count; i++) {
+            float radius = simulation.getRadius(i);
+            float range = Math.max(side - 2 * radius, 0);
+            simulation.setBubblePosition(i, radius + random.nextFloat() * range, radius + random.nextFloat() * range);
+        }
+        return simulation;
+    }
+}
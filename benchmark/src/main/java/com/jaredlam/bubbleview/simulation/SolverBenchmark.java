@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full headless solve, packing plus relaxation, of bubbles covering half a container. A square
+ * container fits the pack as is; a tall one, four times as high as wide, makes the relaxation
+ * spread the stretched pack out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SolverBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int count;
+
+    @Param({"1", "4"})
+    public float aspect;
+
+    private float[] mRadii;
+    private float mWidth;
+    private float mHeight;
+
+    @Setup
+    public void setUp() {
+        BubbleSimulation simulation = new BubbleSimulation();
+        float side = Scenes.addBubbles(simulation, count, 0.5f, 42);
+        mRadii = new float[count];
+        for (int i = 0; i < count; i++) {
+            mRadii[i] = simulation.getRadius(i);
+        }
+        mWidth = side / (float) Math.sqrt(aspect);
+        mHeight = side * (float) Math.sqrt(aspect);
+    }
+
+    @Benchmark
+    public BubbleArrangement solve() {
+        BubbleSolver solver = new BubbleSolver();
+        solver.setPadding(4);
+        return solver.solve(mRadii, count, mWidth, mHeight);
+    }
+}
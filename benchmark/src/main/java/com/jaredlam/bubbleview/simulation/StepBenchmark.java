@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One frame of the simulation: a full {@link BubbleSimulation#step(long)}, and the collision pass
+ * inside it on its own. The scene is built once per trial, not per iteration, because the gc
+ * profiler would count the setup's allocations against the measured frames; bubbles never sleep,
+ * so the frames keep doing the same amount of work as the scene evolves.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int count;
+
+    @Param({"0.1", "0.3", "0.6"})
+    public float density;
+
+    private BubbleSimulation mSimulation;
+
+    @Setup
+    public void setUp() {
+        mSimulation = Scenes.scattered(count, density, 42);
+    }
+
+    @Benchmark
+    public BubbleSimulation step() {
+        mSimulation.step(Scenes.FRAME_NANOS);
+        return mSimulation;
+    }
+
+    @Benchmark
+    public BubbleSimulation collisionPass() {
+        mSimulation.resolveCollisions();
+        return mSimulation;
+    }
+}
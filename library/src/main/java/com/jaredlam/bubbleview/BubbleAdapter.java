@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview;
+
+import android.database.DataSetObservable;
+import android.database.DataSetObserver;
+import android.view.ViewGroup;
+
+/**
+ * Supplies the bubbles of a {@link BubbleLayout}. Every item is simulated, but a {@link BubbleView}
+ * is only bound while its bubble is visible; views of bubbles that leave the screen are recycled
+ * for the next bubble that enters it.
+ */
+public abstract class BubbleAdapter {
+
+    private final DataSetObservable mDataSetObservable = new DataSetObservable();
+
+    public abstract int getCount();
+
+    /**
+     * Shows the item at {@code position} in {@code view}, which may have shown another item before.
+     */
+    public abstract void onBindView(BubbleView view, int position);
+
+    public BubbleView onCreateView(ViewGroup parent) {
+        return new BubbleView(parent.getContext());
+    }
+
+    /**
+     * Returns the diameter of the item's bubble in pixels, or 0 to have the layout measure a bound
+     * view. Items are only measured when their bubble first comes into view and start out at the
+     * size of the first item until then, so when sizes vary widely, returning them here keeps
+     * bubbles that are off screen from changing size once they are seen.
+     */
+    public float getItemSize(int position) {
+        return 0;
+    }
+
+    /**
+     * Returns the group of the item's bubble, for forces that act per group such as
+     * {@link com.jaredlam.bubbleview.simulation.GroupAttraction}.
+     */
+    public int getItemGroup(int position) {
+        return 0;
+    }
+
+    public long getItemId(int position) {
+        return position;
+    }
+
+    public void registerDataSetObserver(DataSetObserver observer) {
+        mDataSetObservable.registerObserver(observer);
+    }
+
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+        mDataSetObservable.unregisterObserver(observer);
+    }
+
+    public void notifyDataSetChanged() {
+        mDataSetObservable.notifyChanged();
+    }
+}
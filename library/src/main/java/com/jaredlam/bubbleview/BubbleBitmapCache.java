@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview;
+
+import android.graphics.Bitmap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rasterized bubbles shared by every {@link BubbleView} of a {@link BubbleLayout}, keyed by size,
+ * colors and text, so identical bubbles share one bitmap. Least recently used entries are dropped
+ * once the cache grows past its byte budget; a bubble still drawing a dropped bitmap keeps it.
+ */
+class BubbleBitmapCache {
+
+    private final int mMaxBytes;
+    private int mBytes;
+    private final LinkedHashMap<String, Bitmap> mBitmaps = new LinkedHashMap<>(16, 0.75f, true);
+
+    BubbleBitmapCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    Bitmap get(String key) {
+        return mBitmaps.get(key);
+    }
+
+    void put(String key, Bitmap bitmap) {
+        Bitmap previous = mBitmaps.put(key, bitmap);
+        if (previous != null) {
+            mBytes -= getByteCount(previous);
+        }
+        mBytes += getByteCount(bitmap);
+        trim();
+    }
+
+    void clear() {
+        mBitmaps.clear();
+        mBytes = 0;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Bitmap>> iterator = mBitmaps.entrySet().iterator();
+        while (mBytes > mMaxBytes && iterator.hasNext()) {
+            mBytes -= getByteCount(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    private static int getByteCount(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
@@ -18,53 +18,111 @@ package com.jaredlam.bubbleview;
 
 import android.graphics.Rect;
 
+import com.jaredlam.bubbleview.simulation.BubbleSimulation;
+
 /**
  * Created by jaredluo on 15/10/29.
+ * <p/>
+ * Read-only view of one bubble's state in the {@link BubbleSimulation} behind a {@link BubbleLayout}.
+ * It holds no state of its own, so reading it always reflects the latest simulation step. Each read
+ * holds the simulation's monitor, so it never sees a step half done when the layout steps on a
+ * simulation thread. The bubble must still be in the layout.
  */
 public class BubbleInfo {
-    private int index;
-    private Rect rect;
-    private double radians;
-    private int speed;
-    private int oldSpeed;
+    private final BubbleSimulation simulation;
+    private final int id;
+
+    BubbleInfo(BubbleSimulation simulation, int id) {
+        this.simulation = simulation;
+        this.id = id;
+    }
 
+    /**
+     * Returns the bubble's stable id in the simulation.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the bubble's current index in the simulation, which changes as bubbles are removed.
+     */
     public int getIndex() {
-        return index;
+        synchronized (simulation) {
+            return simulation.indexOf(id);
+        }
     }
 
-    public void setIndex(int index) {
-        this.index = index;
+    public float getCenterX() {
+        synchronized (simulation) {
+            return simulation.getX(getIndex());
+        }
     }
 
-    public Rect getRect() {
-        return rect;
+    public float getCenterY() {
+        synchronized (simulation) {
+            return simulation.getY(getIndex());
+        }
     }
 
-    public void setRect(Rect rect) {
-        this.rect = rect;
+    public float getRadius() {
+        synchronized (simulation) {
+            return simulation.getRadius(getIndex());
+        }
     }
 
-    public double getRadians() {
-        return radians;
+    /**
+     * Returns a new rect holding the bubble's bounds. Prefer {@link #getRect(Rect)} in hot paths.
+     */
+    public Rect getRect() {
+        Rect rect = new Rect();
+        getRect(rect);
+        return rect;
     }
 
-    public void setRadians(double radians) {
-        this.radians = radians;
+    public void getRect(Rect outRect) {
+        float centerX;
+        float centerY;
+        float radius;
+        synchronized (simulation) {
+            int index = simulation.indexOf(id);
+            centerX = simulation.getX(index);
+            centerY = simulation.getY(index);
+            radius = simulation.getRadius(index);
+        }
+        int left = (int) (centerX - radius);
+        int top = (int) (centerY - radius);
+        int size = (int) (radius * 2);
+        outRect.set(left, top, left + size, top + size);
     }
 
-    public int getSpeed() {
-        return speed;
+    public float getVelocityX() {
+        synchronized (simulation) {
+            return simulation.getVelocityX(getIndex());
+        }
     }
 
-    public void setSpeed(int speed) {
-        this.speed = speed;
+    public float getVelocityY() {
+        synchronized (simulation) {
+            return simulation.getVelocityY(getIndex());
+        }
+    }
+
+    public double getRadians() {
+        synchronized (simulation) {
+            return simulation.getRadians(getIndex());
+        }
     }
 
-    public int getOldSpeed() {
-        return oldSpeed;
+    public float getSpeed() {
+        synchronized (simulation) {
+            return simulation.getSpeed(getIndex());
+        }
     }
 
-    public void setOldSpeed(int oldSpeed) {
-        this.oldSpeed = oldSpeed;
+    public float getOldSpeed() {
+        synchronized (simulation) {
+            return simulation.getOldSpeed(getIndex());
+        }
     }
 }
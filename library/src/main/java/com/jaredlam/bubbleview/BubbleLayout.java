@@ -16,38 +16,149 @@
  */
 package com.jaredlam.bubbleview;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.TypedArray;
-import android.graphics.Point;
-import android.graphics.Rect;
-import android.os.Handler;
-import android.os.Message;
+import android.database.DataSetObserver;
+import android.graphics.Canvas;
+import android.os.Build;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.VelocityTracker;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.view.ViewGroup;
+import android.view.WindowManager;
+import android.widget.Scroller;
+
+import com.jaredlam.bubbleview.simulation.BubbleArrangement;
+import com.jaredlam.bubbleview.simulation.BubbleForce;
+import com.jaredlam.bubbleview.simulation.BubblePlacement;
+import com.jaredlam.bubbleview.simulation.BubbleSimulation;
+import com.jaredlam.bubbleview.simulation.BubbleSolver;
+import com.jaredlam.bubbleview.simulation.CenterGravity;
+import com.jaredlam.bubbleview.simulation.GroupAttraction;
+import com.jaredlam.bubbleview.simulation.LinearDrag;
+import com.jaredlam.bubbleview.simulation.SimulationTrace;
 
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
+import java.util.Random;
 
 public class BubbleLayout extends ViewGroup implements BubbleView.MoveListener {
 
+    /**
+     * Every bubble is a child view that is laid out again at its new position each frame.
+     */
+    public static final int RENDER_MODE_VIEWS = 0;
+    /**
+     * The layout draws every bubble's circle and text itself in one pass from the simulation state,
+     * translating the canvas instead of laying out children. Children are still measured and
+     * provide text, paint and color, but do not lay out or draw on their own. Touches are
+     * hit-tested against the simulation, so dragging and tapping bubbles work as in the other
+     * modes.
+     */
+    public static final int RENDER_MODE_CANVAS = 1;
+    /**
+     * Children are laid out once and follow the simulation through translationX/Y, which only
+     * updates their display list transform. Falls back to {@link #RENDER_MODE_VIEWS} before
+     * Honeycomb.
+     */
+    public static final int RENDER_MODE_TRANSLATION = 2;
+
+    private static final int BITMAP_CACHE_MAX_BYTES = 8 * 1024 * 1024;
+
     public static final int DEFAULT_PADDING = 10;
     public static final int DEFAULT_MIN_SPEED = 200;
     public static final int DEFAULT_MAX_SPEED = 500;
+    public static final int DEFAULT_OFFSCREEN_STEP_INTERVAL = 4;
 
-    private int padding = DEFAULT_PADDING;
-    private int minPxPerTenMilliseconds = DEFAULT_MIN_SPEED;
-    private int maxPxPerTenMilliseconds = DEFAULT_MAX_SPEED;
+    /**
+     * The speed attributes are given in pixels per ten milliseconds; the simulation works in
+     * pixels per second.
+     */
+    private static final int SPEED_ATTR_TO_PX_PER_SECOND = 100;
+
+    private static final float NANOS_PER_SECOND = 1e9f;
+
+    private static final int INVALID_POINTER = -1;
 
-    private double mRadiansPiece = 2 * Math.PI / 6;
-    private int mRandomRadians = 0;
-    private List<BubbleInfo> mBubbleInfos = new ArrayList<>();
-    private Timer mTimer;
+    /**
+     * A released bubble flies off at this share of the finger's speed.
+     */
+    private static final float FLING_SPEED_SCALE = 1 / 6f;
 
-    private MyHandler mHandler;
+    // Key of a child bubble that has no view id: this plus its position among the bubbles.
+    private static final long KEY_BY_ORDER = 1L << 32;
+    private static final long DEFAULT_FRAME_NANOS = 1000L * 1000 * 1000 / 60;
+
+    private int padding = DEFAULT_PADDING;
+    private int mRenderMode = RENDER_MODE_VIEWS;
+    private boolean mBubbleCacheEnabled;
+    private BubbleBitmapCache mBitmapCache;
+    private int minPxPerSecond = DEFAULT_MIN_SPEED * SPEED_ATTR_TO_PX_PER_SECOND;
+    private int maxPxPerSecond = DEFAULT_MAX_SPEED * SPEED_ATTR_TO_PX_PER_SECOND;
+
+    private BubbleSimulation mSimulation = new BubbleSimulation();
+    private final BubblePlacement mPlacement = new BubblePlacement();
+    private int[] mPlacementOrder = new int[0];
+    private Random mRandom = new Random();
+    private int mLayoutWidth = -1;
+    private int mLayoutHeight = -1;
+    private OnHierarchyChangeListener mOnHierarchyChangeListener;
+
+    private int mWorldWidth;
+    private int mWorldHeight;
+    private int mCullingMargin = -1;
+    private int mOffscreenStepInterval = DEFAULT_OFFSCREEN_STEP_INTERVAL;
+    private Scroller mScroller;
+    private ViewConfiguration mViewConfiguration;
+
+    // One velocity tracker for every gesture, cleared when the next one starts.
+    private VelocityTracker mVelocityTracker;
+    // Fingers down, the first mPointerCount entries; the others are kept for reuse.
+    private TouchPointer[] mPointers = new TouchPointer[0];
+    private int mPointerCount;
+    private int mPanPointerId = INVALID_POINTER;
+    // The down event was already tracked by onInterceptTouchEvent and is not tracked again.
+    private boolean mDownTracked;
+    // From the first finger down to the last one up, even while no finger is tracked, so that a
+    // finger landing on a bubble later in the gesture can still pick it up.
+    private boolean mGestureActive;
+    // Holds and releases gathered since the last frame, which applies them in one batch.
+    private final TouchInput mTouchInput = new TouchInput();
+
+    private BubbleAdapter mAdapter;
+    // Views bound to adapter items, indexed by bubble id, which equals the item position.
+    private BubbleView[] mBoundViews = new BubbleView[0];
+    // Item ids as of the last load, and whether each item's radius was measured or only estimated.
+    private long[] mItemIds = new long[0];
+    private boolean[] mItemMeasured = new boolean[0];
+    private final List<BubbleView> mRecycledViews = new ArrayList<>();
+
+    private FrameTicker mTicker;
+    private boolean mAnimating;
+    private long mLastFrameTimeNanos;
+
+    private boolean mSimulationThreadEnabled;
+    private SimulationThread mSimulationThread;
+    private SimulationThread.Snapshot mSnapshot;
+
+    private FrameMetricsListener mFrameMetricsListener;
+    private FrameMetrics mFrameMetrics;
+    private long mExpectedFrameNanos = DEFAULT_FRAME_NANOS;
+
+    // State restored before the first layout after it, which applies it.
+    private SavedState mRestoredState;
+
+    // Precomputed centers, applied by the next layout and whenever the bubbles are placed anew.
+    private BubbleArrangement mArrangement;
+    private boolean mArrangementPending;
 
     public BubbleLayout(Context context) {
         this(context, null);
@@ -67,71 +178,156 @@ public class BubbleLayout extends ViewGroup implements BubbleView.MoveListener {
         for (int i = 0; i < typedArray.getIndexCount(); i++) {
             int id = typedArray.getIndex(i);
             if (id == R.styleable.bubbleview_BubbleLayout_bubbleview_minSpeed) {
-                minPxPerTenMilliseconds = typedArray.getDimensionPixelSize(id, DEFAULT_MIN_SPEED);
+                minPxPerSecond = typedArray.getDimensionPixelSize(id, DEFAULT_MIN_SPEED) * SPEED_ATTR_TO_PX_PER_SECOND;
             } else if (id == R.styleable.bubbleview_BubbleLayout_bubbleview_maxSpeed) {
-                maxPxPerTenMilliseconds = typedArray.getDimensionPixelSize(id, DEFAULT_MAX_SPEED);
+                maxPxPerSecond = typedArray.getDimensionPixelSize(id, DEFAULT_MAX_SPEED) * SPEED_ATTR_TO_PX_PER_SECOND;
             } else if (id == R.styleable.bubbleview_BubbleLayout_bubbleview_padding) {
                 padding = typedArray.getDimensionPixelSize(id, DEFAULT_PADDING);
+            } else if (id == R.styleable.bubbleview_BubbleLayout_bubbleview_renderMode) {
+                mRenderMode = typedArray.getInt(id, RENDER_MODE_VIEWS);
+            } else if (id == R.styleable.bubbleview_BubbleLayout_bubbleview_cacheBubbles) {
+                mBubbleCacheEnabled = typedArray.getBoolean(id, false);
+            } else if (id == R.styleable.bubbleview_BubbleLayout_bubbleview_worldWidth) {
+                mWorldWidth = typedArray.getDimensionPixelSize(id, 0);
+            } else if (id == R.styleable.bubbleview_BubbleLayout_bubbleview_worldHeight) {
+                mWorldHeight = typedArray.getDimensionPixelSize(id, 0);
+            } else if (id == R.styleable.bubbleview_BubbleLayout_bubbleview_randomSeed) {
+                mRandom = new Random(typedArray.getInt(id, 0));
+            } else if (id == R.styleable.bubbleview_BubbleLayout_bubbleview_simulationThread) {
+                mSimulationThreadEnabled = typedArray.getBoolean(id, false);
+            } else if (id == R.styleable.bubbleview_BubbleLayout_bubbleview_restitution) {
+                mSimulation.setRestitution(typedArray.getFloat(id, BubbleSimulation.DEFAULT_RESTITUTION));
+            } else if (id == R.styleable.bubbleview_BubbleLayout_bubbleview_damping) {
+                mSimulation.setDamping(typedArray.getFloat(id, 0));
             }
         }
         typedArray.recycle();
 
-        mRandomRadians = getRandomBetween(0, (int) (2 * Math.PI));
-        mHandler = new MyHandler(this);
-        mHandler.sendEmptyMessage(0);
+        mPlacement.setStartRadians(getRandomBetween(0, (int) (2 * Math.PI)));
+        mPlacement.setPadding(padding);
+        mTicker = FrameTicker.create(mFrameCallback);
+        mScroller = new Scroller(context);
+        mViewConfiguration = ViewConfiguration.get(context);
+        super.setOnHierarchyChangeListener(mHierarchyChangeListener);
     }
 
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
-        Rect baseRect = null;
-        int currentRadians = mRandomRadians;
-        List<BubbleView> sortResult = sort();
-        for (int i = 0; i < sortResult.size(); i++) {
-            View child = sortResult.get(i);
-
-            BubbleInfo bubbleInfo = getBubbleInfoByView(child);
-
-            if (bubbleInfo != null) {
-                BubbleView bubbleView = (BubbleView) child;
-                bubbleView.setMoveListener(this);
-                bubbleView.setBubbleInfo(bubbleInfo);
-                int radius = bubbleView.getMeasuredWidth() / 2;
-                if (i == 0) {
-                    baseRect = getBounds(getMeasuredWidth() / 2 - radius, getMeasuredHeight() / 2 - radius, child.getMeasuredWidth(), child.getMeasuredHeight());
-                    child.layout(baseRect.left, baseRect.top, baseRect.right, baseRect.bottom);
-                    bubbleInfo.setRect(baseRect);
-                } else {
-                    int baseCenterX = baseRect.left + baseRect.width() / 2;
-                    int baseCenterY = baseRect.top + baseRect.width() / 2;
-
-                    currentRadians += mRadiansPiece;
-                    int[] center = getRadianPoint(baseRect.width() / 2 + padding + radius, baseCenterX, baseCenterY, currentRadians);
-
-                    Rect rect = getBounds(center[0] - radius, center[1] - radius, child.getMeasuredWidth(), child.getMeasuredHeight());
-                    child.layout(rect.left, rect.top, rect.right, rect.bottom);
-                    bubbleInfo.setRect(rect);
+        int width = r - l;
+        int height = b - t;
+        // Only a new size starts the bubbles over; otherwise just the new bubbles get placed.
+        boolean resized = width != mLayoutWidth || height != mLayoutHeight;
+        mLayoutWidth = width;
+        mLayoutHeight = height;
+        synchronized (mSimulation) {
+            mSimulation.setBounds(0, 0, getWorldWidth(), getWorldHeight());
+            if (resized) {
+                scrollTo((getWorldWidth() - width) / 2, (getWorldHeight() - height) / 2);
+                updateActiveRegion();
+            }
+
+            if (mAdapter != null) {
+                placeBubbles(resized, null);
+            } else {
+                placeBubbles(resized, getBubbleChildren());
+            }
+            if (mArrangement != null && (resized || mArrangementPending)) {
+                applyArrangement(mArrangement);
+                mArrangementPending = false;
+            }
+            if (mRestoredState != null) {
+                restoreBubbles(mRestoredState);
+                mRestoredState = null;
+            }
+            onSimulationChanged();
+            if (mAdapter != null) {
+                updateAdapterViews();
+            }
+            for (int i = 0; i < getChildCount(); i++) {
+                View child = getChildAt(i);
+                int index = getSimulationIndex(child);
+                if (index >= 0) {
+                    ((BubbleView) child).setBubbleCacheEnabled(mBubbleCacheEnabled && mRenderMode != RENDER_MODE_CANVAS);
+                    layoutChild(child, index);
                 }
             }
         }
+        startAnimate();
     }
 
-    private BubbleInfo getBubbleInfoByView(View child) {
-        for (BubbleInfo info : mBubbleInfos) {
-            BubbleView bubbleView = (BubbleView) getChildAt(info.getIndex());
-            if (bubbleView == child) {
-                return info;
-            }
+    /**
+     * Packs the bubbles around the center of the world, largest in the middle. Bubbles go in the
+     * given order, or in simulation order when it is null; the order only breaks ties in size.
+     */
+    private void placeBubbles(boolean resized, List<BubbleView> order) {
+        int count = order != null ? order.size() : mSimulation.getBubbleCount();
+        if (mPlacementOrder.length < count) {
+            mPlacementOrder = new int[count];
         }
-        return null;
+        for (int i = 0; i < count; i++) {
+            mPlacementOrder[i] = order != null ? mSimulation.indexOf(order.get(i).getBubbleId()) : i;
+        }
+        mPlacement.place(mSimulation, mPlacementOrder, count,
+                getWorldWidth() / 2, getWorldHeight() / 2, resized);
     }
 
-    private int[] getRadianPoint(int amount, int x, int y, double radian) {
-        int resultX = x + (int) (amount * Math.cos(radian));
-        int resultY = y + (int) (amount * Math.sin(radian));
+    /**
+     * Puts the bubbles where a {@link BubbleSolver} arranged them, at rest, instead of packing them
+     * and setting them adrift: the first center goes to the adapter's first item or, without an
+     * adapter, to the first bubble child, and so on. With every bubble at rest the frame loop does
+     * not run until a bubble is touched. An arrangement solved for another size than the world's
+     * is centered in it, and bubbles it has no center for are placed as usual. Bubbles whose size
+     * differs from the one they were arranged for start awake, and any bubble left overlapping
+     * another one or outside the world is woken to make room. The arrangement is applied again
+     * whenever the layout's size changes; null goes back to packing.
+     */
+    public void setArrangement(BubbleArrangement arrangement) {
+        mArrangement = arrangement;
+        mArrangementPending = arrangement != null;
+        requestLayout();
+    }
 
-        return new int[]{resultX, resultY};
+    private void applyArrangement(BubbleArrangement arrangement) {
+        int count;
+        int[] indices;
+        if (mAdapter != null) {
+            count = Math.min(arrangement.getBubbleCount(), mAdapter.getCount());
+            indices = new int[count];
+            for (int position = 0; position < count; position++) {
+                indices[position] = mSimulation.indexOf(position);
+            }
+        } else {
+            List<BubbleView> bubbles = getBubbleChildren();
+            count = Math.min(arrangement.getBubbleCount(), bubbles.size());
+            indices = new int[count];
+            for (int i = 0; i < count; i++) {
+                indices[i] = mSimulation.indexOf(bubbles.get(i).getBubbleId());
+            }
+        }
+        float offsetX = (getWorldWidth() - arrangement.getWidth()) / 2;
+        float offsetY = (getWorldHeight() - arrangement.getHeight()) / 2;
+        for (int i = 0; i < count; i++) {
+            int index = indices[i];
+            if (index >= 0) {
+                boolean matches = Math.abs(mSimulation.getTargetRadius(index) - arrangement.getRadius(i)) < 0.5f;
+                mSimulation.setBubbleState(index, arrangement.getX(i) + offsetX, arrangement.getY(i) + offsetY,
+                        0, 0, 0, matches);
+            }
+        }
+        mSimulation.wakeUnsettled();
     }
 
+    private void layoutChild(View child, int index) {
+        int width = child.getMeasuredWidth();
+        float x = getBubbleX(index);
+        float y = getBubbleY(index);
+        int left = (int) x - width / 2;
+        int top = (int) y - width / 2;
+        child.layout(left, top, left + width, top + child.getMeasuredHeight());
+        if (mRenderMode == RENDER_MODE_TRANSLATION && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            translateChild(child, x, y);
+        }
+    }
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
@@ -140,9 +336,18 @@ public class BubbleLayout extends ViewGroup implements BubbleView.MoveListener {
         int heightMode = MeasureSpec.getMode(heightMeasureSpec);
         int heightSize = MeasureSpec.getSize(heightMeasureSpec);
 
-        measureChildren(widthMeasureSpec, heightMeasureSpec);
-
-        setupBubbleInfoList();
+        if (mAdapter != null) {
+            for (int i = 0; i < getChildCount(); i++) {
+                View child = getChildAt(i);
+                int index = getSimulationIndex(child);
+                if (index >= 0) {
+                    measureBubbleChild(child, index);
+                }
+            }
+        } else {
+            measureChildren(widthMeasureSpec, heightMeasureSpec);
+            updateBubbleRadii();
+        }
 
         switch (widthMode) {
             case MeasureSpec.EXACTLY:
@@ -161,331 +366,1621 @@ public class BubbleLayout extends ViewGroup implements BubbleView.MoveListener {
         setMeasuredDimension(widthSize, heightSize);
     }
 
+    /**
+     * Adds a bubble, keeping the children ordered by descending text width. The insertion point is
+     * found by binary search over the cached text widths.
+     */
     public void addViewSortByWidth(BubbleView newChild) {
 
         LayoutParams param = new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
         newChild.setLayoutParams(param);
-        if (getChildCount() > 0) {
-            for (int i = 0; i < getChildCount(); i++) {
-                View child = getChildAt(i);
-                if (child instanceof BubbleView) {
-                    BubbleView bubbleView = (BubbleView) child;
-                    float textWidth = bubbleView.getTextMeasureWidth();
-                    if (newChild.getTextMeasureWidth() > textWidth) {
-                        super.addView(newChild, i);
-                        return;
-                    }
-                }
+        float textWidth = newChild.getTextMeasureWidth();
+        int low = 0;
+        int high = getChildCount();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getChildTextWidth(mid) >= textWidth) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
         }
-        super.addView(newChild);
+        super.addView(newChild, low);
     }
 
-    private void setupBubbleInfoList() {
-        int count = getChildCount();
-        for (int i = 0; i < count; i++) {
-            BubbleInfo info = new BubbleInfo();
-            info.setRadians(getRandomRadians());
-            info.setSpeed(getRandomBetween(minPxPerTenMilliseconds, maxPxPerTenMilliseconds));
-            info.setOldSpeed(info.getSpeed());
-            info.setIndex(i);
-            mBubbleInfos.add(info);
+    private float getChildTextWidth(int index) {
+        View child = getChildAt(index);
+        if (child instanceof BubbleView) {
+            return ((BubbleView) child).getTextMeasureWidth();
         }
+        return Float.MAX_VALUE;
     }
 
+    @Override
+    public void setOnHierarchyChangeListener(OnHierarchyChangeListener listener) {
+        mOnHierarchyChangeListener = listener;
+    }
 
-    private int getRandomBetween(int min, int max) {
-        return min + (int) (Math.random() * ((max - min) + 1));
+    /**
+     * Keeps the simulation in step with the children: every added bubble gets its own simulated
+     * state and id, and a removed bubble takes only its own state with it.
+     */
+    private final OnHierarchyChangeListener mHierarchyChangeListener = new OnHierarchyChangeListener() {
+        @Override
+        public void onChildViewAdded(View parent, View child) {
+            // With an adapter, views only come and go as bubbles scroll in and out of sight.
+            if (mAdapter == null && child instanceof BubbleView) {
+                addBubble((BubbleView) child);
+            }
+            if (mOnHierarchyChangeListener != null) {
+                mOnHierarchyChangeListener.onChildViewAdded(parent, child);
+            }
+        }
+
+        @Override
+        public void onChildViewRemoved(View parent, View child) {
+            if (mAdapter == null && child instanceof BubbleView) {
+                removeBubble((BubbleView) child);
+            }
+            if (mOnHierarchyChangeListener != null) {
+                mOnHierarchyChangeListener.onChildViewRemoved(parent, child);
+            }
+        }
+    };
+
+    private void addBubble(BubbleView bubbleView) {
+        int speed = getRandomBetween(minPxPerSecond, maxPxPerSecond);
+        int id;
+        synchronized (mSimulation) {
+            id = mSimulation.addBubble(bubbleView.getMeasuredWidth() / 2f, getRandomRadians(), speed);
+            mSimulation.setBubbleGroup(mSimulation.indexOf(id), bubbleView.getBubbleGroup());
+            onSimulationChanged();
+        }
+        bubbleView.setBubbleId(id);
+        bubbleView.setBubbleInfo(new BubbleInfo(mSimulation, id));
     }
 
-    private void setChildFrame(View child, int left, int top, int width, int height) {
-        child.layout(left, top, left + width, top + height);
+    private void removeBubble(BubbleView bubbleView) {
+        synchronized (mSimulation) {
+            mSimulation.removeBubble(bubbleView.getBubbleId());
+            onSimulationChanged();
+        }
+        bubbleView.setBubbleId(BubbleSimulation.NO_ID);
+        bubbleView.setBubbleInfo(null);
+        bubbleView.setBubbleSize(0);
     }
 
-    private Rect getBounds(int left, int top, int width, int height) {
-        return new Rect(left, top, left + width, top + height);
+    /**
+     * Sets the range new bubbles pick their speed from, in pixels per second.
+     */
+    public void setSpeedRange(int minPxPerSecond, int maxPxPerSecond) {
+        this.minPxPerSecond = minPxPerSecond;
+        this.maxPxPerSecond = maxPxPerSecond;
     }
 
+    /**
+     * Bubbles slower than {@code pxPerSecond} for {@code frames} frames in a row go to sleep and
+     * cost nothing until touched or hit. Once every bubble sleeps the frame loop stops. Bubbles
+     * keep their speed unless {@link #setDamping(float) damped}, a restitution below 1 or a
+     * {@link LinearDrag} slows them down.
+     */
+    public void setSleepThreshold(float pxPerSecond, int frames) {
+        synchronized (mSimulation) {
+            mSimulation.setSleepThreshold(pxPerSecond, frames);
+        }
+    }
+
+    /**
+     * Sets how much speed bubbles keep when they hit each other or the edges, from 0 to the default
+     * of 1. Lower values let bubbles settle, and fall asleep, sooner.
+     */
+    public void setRestitution(float restitution) {
+        synchronized (mSimulation) {
+            mSimulation.setRestitution(restitution);
+        }
+    }
 
-    private boolean doRectOverlap(Rect rect0, Rect rect1) {
-        return !(rect0.left > rect1.right || rect1.left > rect0.right) && !(rect0.top > rect1.bottom || rect1.top > rect0.bottom);
+    /**
+     * Sets the share of their speed, per second, bubbles lose while they move, so they settle and
+     * fall asleep. See {@link BubbleSimulation#setDamping(float)}.
+     */
+    public void setDamping(float perSecond) {
+        synchronized (mSimulation) {
+            mSimulation.setDamping(perSecond);
+        }
     }
 
-    private boolean doCircleOverlap(Rect rect0, Rect rect1) {
-        int x0 = rect0.centerX();
-        int y0 = rect0.centerY();
-        int r0 = rect0.width() / 2;
-        int x1 = rect1.centerX();
-        int y1 = rect1.centerY();
-        int r1 = rect1.width() / 2;
+    /**
+     * Steps of at least {@code minBubbleCount} bubbles are spread over {@code workerCount}
+     * threads. See {@link BubbleSimulation#setParallelism(int, int)}.
+     */
+    public void setParallelism(int workerCount, int minBubbleCount) {
+        synchronized (mSimulation) {
+            mSimulation.setParallelism(workerCount, minBubbleCount);
+        }
+    }
 
-        return Math.pow(x0 - x1, 2) + Math.pow(y0 - y1, 2) <= Math.pow(r0 + r1, 2);
+    /**
+     * Adds a force, such as {@link CenterGravity}, {@link GroupAttraction} or {@link LinearDrag},
+     * that acts on every bubble from the next frame on. See
+     * {@link BubbleSimulation#addForce(BubbleForce)}. Changing the force's parameters, on the main
+     * thread, sets the bubbles moving again. A force acts in one layout at a time; give another
+     * layout a {@link BubbleForce#copy()}.
+     */
+    public void addForce(BubbleForce force) {
+        synchronized (mSimulation) {
+            mSimulation.addForce(force);
+            onSimulationChanged();
+        }
+        force.registerObserver(mForceObserver);
+        startAnimate();
     }
 
-    private boolean chooseFromTwo() {
-        return Math.random() > 0.5;
+    public void removeForce(BubbleForce force) {
+        force.unregisterObserver(mForceObserver);
+        synchronized (mSimulation) {
+            mSimulation.removeForce(force);
+            onSimulationChanged();
+        }
+        startAnimate();
     }
 
-    private List<BubbleView> sort() {
-        List<BubbleView> allBubbleChild = new ArrayList<>();
-        for (int i = 0; i < getChildCount(); i++) {
-            View view = getChildAt(i);
-            if (view != null && view instanceof BubbleView) {
-                allBubbleChild.add((BubbleView) view);
+    public void clearForces() {
+        synchronized (mSimulation) {
+            List<BubbleForce> forces = mSimulation.getForces();
+            for (int f = 0; f < forces.size(); f++) {
+                forces.get(f).unregisterObserver(mForceObserver);
             }
+            mSimulation.clearForces();
+            onSimulationChanged();
         }
+        startAnimate();
+    }
 
-        List<BubbleView> sortResult = new ArrayList<>();
+    private final BubbleForce.Observer mForceObserver = new BubbleForce.Observer() {
+        @Override
+        public void onForceChanged(BubbleForce force) {
+            startAnimate();
+        }
+    };
+
+    /**
+     * Grows or shrinks the bubble to {@code size} pixels across over {@code durationMillis}, e.g. to
+     * highlight a selected bubble. Only the bubbles it grows into wake up and make room, and no
+     * layout pass is requested; the bubble's view is resized frame by frame. A size of 0 animates
+     * it back to its own measured size.
+     */
+    public void animateBubbleSize(BubbleView view, float size, long durationMillis) {
+        int id = view.getBubbleId();
+        if (id == BubbleSimulation.NO_ID) {
+            return;
+        }
+        float radius;
+        if (size > 0) {
+            radius = size / 2;
+        } else if (mAdapter != null) {
+            radius = getItemRadius(id);
+        } else {
+            radius = view.measureBubbleSize() / 2f;
+        }
+        view.setBubbleSize(Math.max(size, 0));
+        synchronized (mSimulation) {
+            int index = mSimulation.indexOf(id);
+            if (index < 0) {
+                return;
+            }
+            mSimulation.animateBubbleRadius(index, radius, durationMillis * 1000000L);
+            onSimulationChanged();
+        }
+        startAnimate();
+    }
 
-        if (allBubbleChild.size() > 2) {
-            sortResult.add(allBubbleChild.get(0));
-            sortResult.add(allBubbleChild.get(1));
+    /**
+     * Makes every random choice of the layout, the ring placement's direction and each new
+     * bubble's heading and speed, come from a generator with the given seed, so the same seed and
+     * the same bubbles start the same way every time.
+     */
+    public void setRandomSeed(long seed) {
+        mRandom = new Random(seed);
+        mPlacement.setStartRadians(getRandomBetween(0, (int) (2 * Math.PI)));
+    }
 
-            List<BubbleView> halfList = allBubbleChild.subList(2, allBubbleChild.size());
-            List<BubbleView> quarter1List = halfList.subList(0, halfList.size() / 2);
-            List<BubbleView> quarter2List = halfList.subList(halfList.size() / 2, halfList.size());
-            int count = Math.max(quarter1List.size(), quarter2List.size());
-            for (int i = 0; i < count; i++) {
-                if (i < quarter2List.size()) {
-                    sortResult.add(quarter2List.get(i));
-                }
-                if (i < quarter1List.size()) {
-                    sortResult.add(quarter1List.get(i));
+    /**
+     * Starts recording the simulation, from its current state, with every bubble added, placed,
+     * touched or removed, every change to the forces and every frame's elapsed time. Replay the
+     * returned trace with {@link SimulationTrace#replay(SimulationTrace.ReplayListener)}, on a
+     * device or a plain JVM. Only the built-in forces can be recorded.
+     *
+     * @throws IllegalStateException if a force other than the built-in ones has been added
+     */
+    public SimulationTrace startRecording() {
+        synchronized (mSimulation) {
+            return mSimulation.startRecording();
+        }
+    }
+
+    public void stopRecording() {
+        synchronized (mSimulation) {
+            mSimulation.stopRecording();
+        }
+    }
+
+    /**
+     * Reports every animation frame's timings and simulation counters to {@code listener}, or stops
+     * when it is null. While no listener is set nothing is measured.
+     */
+    public void setFrameMetricsListener(FrameMetricsListener listener) {
+        mFrameMetricsListener = listener;
+        if (listener == null) {
+            return;
+        }
+        if (mFrameMetrics == null) {
+            mFrameMetrics = new FrameMetrics();
+        } else {
+            mFrameMetrics.reset();
+        }
+        WindowManager windowManager = (WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+        mExpectedFrameNanos = refreshRate > 0 ? (long) (NANOS_PER_SECOND / refreshRate) : DEFAULT_FRAME_NANOS;
+    }
+
+    /**
+     * Makes the bubbles float in a world of the given size, which users can pan and fling across
+     * when it is larger than the layout. 0 makes a dimension follow the layout's size.
+     */
+    public void setWorldSize(int width, int height) {
+        mWorldWidth = width;
+        mWorldHeight = height;
+        mLayoutWidth = -1;
+        requestLayout();
+    }
+
+    public int getWorldWidth() {
+        return Math.max(mWorldWidth, mLayoutWidth);
+    }
+
+    public int getWorldHeight() {
+        return Math.max(mWorldHeight, mLayoutHeight);
+    }
+
+    /**
+     * Sets how far beyond the visible part of the world bubbles are still moved on screen and
+     * simulated at full rate, in pixels. By default it is a quarter of the layout's larger side.
+     */
+    public void setCullingMargin(int margin) {
+        mCullingMargin = margin;
+        updateActiveRegion();
+    }
+
+    /**
+     * Bubbles beyond the culling margin are simulated once every {@code interval} frames, or
+     * frozen if it is 0.
+     */
+    public void setOffscreenStepInterval(int interval) {
+        mOffscreenStepInterval = interval;
+        updateActiveRegion();
+    }
+
+    private int getCullingMargin() {
+        return mCullingMargin >= 0 ? mCullingMargin : Math.max(mLayoutWidth, mLayoutHeight) / 4;
+    }
+
+    private void updateActiveRegion() {
+        if (mLayoutWidth <= 0) {
+            return;
+        }
+        int margin = getCullingMargin();
+        synchronized (mSimulation) {
+            mSimulation.setActiveRegion(getScrollX() - margin, getScrollY() - margin,
+                    getScrollX() + mLayoutWidth + margin, getScrollY() + mLayoutHeight + margin, mOffscreenStepInterval);
+        }
+    }
+
+    @Override
+    public void scrollTo(int x, int y) {
+        int maxX = Math.max(0, getWorldWidth() - mLayoutWidth);
+        int maxY = Math.max(0, getWorldHeight() - mLayoutHeight);
+        super.scrollTo(Math.max(0, Math.min(x, maxX)), Math.max(0, Math.min(y, maxY)));
+    }
+
+    @Override
+    protected void onScrollChanged(int l, int t, int oldl, int oldt) {
+        super.onScrollChanged(l, t, oldl, oldt);
+        updateActiveRegion();
+        updateAdapterViews();
+        applySimulation();
+        startAnimate();
+    }
+
+    @Override
+    public void computeScroll() {
+        if (mScroller.computeScrollOffset()) {
+            scrollTo(mScroller.getCurrX(), mScroller.getCurrY());
+            invalidate();
+        }
+    }
+
+    private boolean canPan() {
+        return getWorldWidth() > mLayoutWidth || getWorldHeight() > mLayoutHeight;
+    }
+
+    /**
+     * Takes the touch from the children once a finger lands on a bubble, which the layout
+     * hit-tests itself, by circle, against the simulation, or once a finger starts to pan. Other
+     * touches go on to the children.
+     */
+    @Override
+    public boolean onInterceptTouchEvent(MotionEvent event) {
+        int action = event.getActionMasked();
+        mDownTracked = action == MotionEvent.ACTION_DOWN;
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            // A child kept the whole gesture; forget the finger without flinging the world.
+            cancelTouch(true);
+            return false;
+        }
+        handleTouch(event);
+        for (int p = 0; p < mPointerCount; p++) {
+            if (mPointers[p].bubbleId != BubbleSimulation.NO_ID || mPointers[p].moved) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Every finger drags the bubble under it, holding it in place, and flings it on release; a tap
+     * clicks its view. One finger that misses every bubble pans the world when it is larger than
+     * the layout. The layout keeps the whole gesture, so a finger that lands on a bubble after
+     * others missed still drags it. Fingers only record where they are; the next frame hands all
+     * of it to the simulation at once.
+     */
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (mDownTracked && event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+            mDownTracked = false;
+            return true;
+        }
+        return handleTouch(event);
+    }
+
+    private boolean handleTouch(MotionEvent event) {
+        int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_DOWN) {
+            cancelTouch(true);
+            mScroller.forceFinished(true);
+            if (mVelocityTracker == null) {
+                mVelocityTracker = VelocityTracker.obtain();
+            } else {
+                mVelocityTracker.clear();
+            }
+            mGestureActive = true;
+        } else if (!mGestureActive) {
+            return false;
+        }
+        mVelocityTracker.addMovement(event);
+        switch (action) {
+            case MotionEvent.ACTION_DOWN:
+                startPointer(event, 0);
+                break;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                startPointer(event, event.getActionIndex());
+                break;
+            case MotionEvent.ACTION_MOVE:
+                for (int p = 0; p < mPointerCount; p++) {
+                    movePointer(event, mPointers[p]);
                 }
+                break;
+            case MotionEvent.ACTION_POINTER_UP:
+                endPointer(event.getPointerId(event.getActionIndex()), true);
+                break;
+            case MotionEvent.ACTION_UP:
+                endPointer(event.getPointerId(event.getActionIndex()), true);
+                mGestureActive = false;
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                cancelTouch(true);
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Starts tracking the finger at {@code pointerIndex} if it lands on a bubble no other finger
+     * holds, or else if it can pan.
+     */
+    private void startPointer(MotionEvent event, int pointerIndex) {
+        float x = event.getX(pointerIndex);
+        float y = event.getY(pointerIndex);
+        float worldX = x + getScrollX();
+        float worldY = y + getScrollY();
+        int bubbleId = BubbleSimulation.NO_ID;
+        float centerX = 0;
+        float centerY = 0;
+        float radius = 0;
+        float oldSpeed = 0;
+        synchronized (mSimulation) {
+            int index = mSimulation.findBubbleAt(worldX, worldY);
+            if (index >= 0 && !isHeldByPointer(mSimulation.getId(index))) {
+                bubbleId = mSimulation.getId(index);
+                centerX = mSimulation.getX(index);
+                centerY = mSimulation.getY(index);
+                radius = mSimulation.getRadius(index);
+                oldSpeed = mSimulation.getOldSpeed(index);
             }
+        }
+        if (bubbleId == BubbleSimulation.NO_ID && (mPanPointerId != INVALID_POINTER || !canPan())) {
+            return;
+        }
+        if (mPointerCount == mPointers.length) {
+            mPointers = Arrays.copyOf(mPointers, mPointerCount + 2);
+        }
+        if (mPointers[mPointerCount] == null) {
+            mPointers[mPointerCount] = new TouchPointer();
+        }
+        TouchPointer pointer = mPointers[mPointerCount++];
+        pointer.id = event.getPointerId(pointerIndex);
+        pointer.downX = x;
+        pointer.downY = y;
+        pointer.lastX = x;
+        pointer.lastY = y;
+        pointer.moved = false;
+        pointer.bubbleId = bubbleId;
+        pointer.view = bubbleId != BubbleSimulation.NO_ID ? findBubbleView(bubbleId) : null;
+        pointer.targetPending = false;
+        if (bubbleId != BubbleSimulation.NO_ID) {
+            pointer.offsetX = centerX - worldX;
+            pointer.offsetY = centerY - worldY;
+            pointer.radius = radius;
+            pointer.oldSpeed = oldSpeed;
+            holdPointerBubble(pointer, x, y);
+        } else {
+            mPanPointerId = pointer.id;
+        }
+    }
 
+    private void movePointer(MotionEvent event, TouchPointer pointer) {
+        int pointerIndex = event.findPointerIndex(pointer.id);
+        if (pointerIndex < 0) {
+            return;
+        }
+        float x = event.getX(pointerIndex);
+        float y = event.getY(pointerIndex);
+        if (!pointer.moved && (Math.abs(x - pointer.downX) > mViewConfiguration.getScaledTouchSlop()
+                || Math.abs(y - pointer.downY) > mViewConfiguration.getScaledTouchSlop())) {
+            pointer.moved = true;
+        }
+        if (!pointer.moved) {
+            return;
+        }
+        if (pointer.bubbleId != BubbleSimulation.NO_ID) {
+            holdPointerBubble(pointer, x, y);
+            if (pointer.view != null) {
+                notifyMoveListener(pointer, x, y);
+            }
         } else {
-            sortResult = allBubbleChild;
+            scrollBy((int) (pointer.lastX - x), (int) (pointer.lastY - y));
         }
+        pointer.lastX = x;
+        pointer.lastY = y;
+    }
 
-        return sortResult;
+    /**
+     * Tells the move listener of a dragged bubble's view, if it has one, that the finger moved.
+     */
+    @SuppressWarnings("deprecation")
+    private void notifyMoveListener(TouchPointer pointer, float x, float y) {
+        BubbleView.MoveListener listener = pointer.view.getMoveListener();
+        BubbleInfo info = pointer.view.getBubbleInfo();
+        if (listener == null || info == null) {
+            return;
+        }
+        mVelocityTracker.computeCurrentVelocity(1000);
+        float velocityX = mVelocityTracker.getXVelocity(pointer.id);
+        float velocityY = mVelocityTracker.getYVelocity(pointer.id);
+        listener.onMove(info, (int) (pointer.targetX - getScrollX()), (int) (pointer.targetY - getScrollY()),
+                (int) (x - pointer.lastX), (int) (y - pointer.lastY),
+                Math.sqrt(velocityX * velocityX + velocityY * velocityY));
     }
 
-    private void startAnimate() {
-        if (mTimer == null) {
-            mTimer = new Timer();
+    /**
+     * Stops tracking the finger with the given id. Its bubble is let go, flung when the gesture
+     * completed with the finger moving fast enough; a panning finger flings the world instead.
+     */
+    private void endPointer(int pointerId, boolean completed) {
+        int p = 0;
+        while (p < mPointerCount && mPointers[p].id != pointerId) {
+            p++;
         }
-        mTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                mHandler.sendEmptyMessage(0);
-                this.cancel();
+        if (p == mPointerCount) {
+            return;
+        }
+        TouchPointer pointer = mPointers[p];
+        float velocityX = 0;
+        float velocityY = 0;
+        if (completed) {
+            mVelocityTracker.computeCurrentVelocity(1000, mViewConfiguration.getScaledMaximumFlingVelocity());
+            velocityX = mVelocityTracker.getXVelocity(pointerId);
+            velocityY = mVelocityTracker.getYVelocity(pointerId);
+            int minimumFlingVelocity = mViewConfiguration.getScaledMinimumFlingVelocity();
+            if (Math.abs(velocityX) <= minimumFlingVelocity && Math.abs(velocityY) <= minimumFlingVelocity) {
+                velocityX = 0;
+                velocityY = 0;
             }
+        }
+        if (pointer.bubbleId != BubbleSimulation.NO_ID) {
+            int bubbleId = pointer.bubbleId;
+            releasePointerBubble(pointer, velocityX, velocityY);
+            if (completed && !pointer.moved) {
+                performBubbleClick(bubbleId);
+            }
+        } else {
+            mPanPointerId = INVALID_POINTER;
+            if (velocityX != 0 || velocityY != 0) {
+                mScroller.fling(getScrollX(), getScrollY(), (int) -velocityX, (int) -velocityY,
+                        0, Math.max(0, getWorldWidth() - mLayoutWidth), 0, Math.max(0, getWorldHeight() - mLayoutHeight));
+                invalidate();
+            }
+        }
+        // Swap the pointer past the active ones, where it waits to be reused.
+        mPointers[p] = mPointers[--mPointerCount];
+        mPointers[mPointerCount] = pointer;
+    }
 
-        }, 10);
+    /**
+     * Drops every finger. With {@code release} their bubbles are let go without a fling; without,
+     * they are just forgotten, for when the simulation is about to be cleared.
+     */
+    private void cancelTouch(boolean release) {
+        if (release) {
+            while (mPointerCount > 0) {
+                endPointer(mPointers[mPointerCount - 1].id, false);
+            }
+        } else {
+            for (int p = 0; p < mPointerCount; p++) {
+                mPointers[p].view = null;
+            }
+            mPointerCount = 0;
+            mTouchInput.clear();
+        }
+        mPanPointerId = INVALID_POINTER;
+        mGestureActive = false;
+    }
 
+    private boolean isHeldByPointer(int bubbleId) {
+        for (int p = 0; p < mPointerCount; p++) {
+            if (mPointers[p].bubbleId == bubbleId) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private static class MyHandler extends Handler {
-        private WeakReference<BubbleLayout> mBubbleLayout;
+    /**
+     * Moves the pointer's bubble under the finger at the given layout position, inside the world,
+     * from the next frame on.
+     */
+    private void holdPointerBubble(TouchPointer pointer, float x, float y) {
+        float radius = pointer.radius;
+        pointer.targetX = Math.max(radius, Math.min(x + getScrollX() + pointer.offsetX, getWorldWidth() - radius));
+        pointer.targetY = Math.max(radius, Math.min(y + getScrollY() + pointer.offsetY, getWorldHeight() - radius));
+        pointer.targetPending = true;
+        startAnimate();
+    }
 
-        public MyHandler(BubbleLayout layout) {
-            this.mBubbleLayout = new WeakReference<>(layout);
+    /**
+     * Lets go of the pointer's bubble on the next frame. It flies off with the finger's velocity,
+     * scaled down, or without a fling takes up its own speed again in a random direction.
+     */
+    private void releasePointerBubble(TouchPointer pointer, float velocityX, float velocityY) {
+        double radians;
+        float speed;
+        if (velocityX != 0 || velocityY != 0) {
+            radians = Math.atan2(velocityY, velocityX);
+            speed = Math.max((float) Math.sqrt(velocityX * velocityX + velocityY * velocityY) * FLING_SPEED_SCALE,
+                    pointer.oldSpeed);
+        } else {
+            radians = getRandomRadians();
+            speed = pointer.oldSpeed;
+        }
+        if (pointer.targetPending) {
+            mTouchInput.addHold(pointer.bubbleId, pointer.targetX, pointer.targetY);
+            pointer.targetPending = false;
         }
+        mTouchInput.addRelease(pointer.bubbleId, radians, speed);
+        pointer.bubbleId = BubbleSimulation.NO_ID;
+        pointer.view = null;
+        startAnimate();
+    }
 
-        @Override
-        public void handleMessage(Message msg) {
-            BubbleLayout layout = mBubbleLayout.get();
-            int count = layout.getChildCount();
-            for (int i = 0; i < count && layout.mBubbleInfos.size() > 0; i++) {
+    private boolean hasTouchInput() {
+        if (!mTouchInput.isEmpty()) {
+            return true;
+        }
+        for (int p = 0; p < mPointerCount; p++) {
+            if (mPointers[p].targetPending) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-                BubbleInfo bubbleInfo = layout.mBubbleInfos.get(i);
+    /**
+     * Hands the touch input gathered since the last frame to the simulation, or to the simulation
+     * thread, in one batch. Only the latest position of every finger is handed over.
+     */
+    private void flushTouchInput() {
+        for (int p = 0; p < mPointerCount; p++) {
+            TouchPointer pointer = mPointers[p];
+            if (pointer.targetPending) {
+                mTouchInput.addHold(pointer.bubbleId, pointer.targetX, pointer.targetY);
+                pointer.targetPending = false;
+            }
+        }
+        if (mTouchInput.isEmpty()) {
+            return;
+        }
+        if (mSimulationThread != null) {
+            mSimulationThread.queueInput(mTouchInput);
+        } else {
+            synchronized (mSimulation) {
+                mTouchInput.applyTo(mSimulation);
+            }
+        }
+        mTouchInput.clear();
+    }
 
-                List<BubbleInfo> overlapList = layout.hasOverlap(bubbleInfo);
+    private void performBubbleClick(int id) {
+        BubbleView view = findBubbleView(id);
+        if (view != null) {
+            view.performClick();
+        }
+    }
 
-                Point overlapPoint = layout.ifOverlapBounds(bubbleInfo);
-                if (overlapPoint != null) {
-                    layout.reverseIfOverlapBounds(bubbleInfo);
-                } else if (overlapList.size() > 0) {
-                    layout.dealWithOverlap();
-                }
+    /**
+     * Returns the view showing the bubble with the given id, or null when it has none.
+     */
+    private BubbleView findBubbleView(int id) {
+        if (mAdapter != null) {
+            return id < mBoundViews.length ? mBoundViews[id] : null;
+        }
+        for (int i = 0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            if (child instanceof BubbleView && ((BubbleView) child).getBubbleId() == id) {
+                return (BubbleView) child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the bubble off toward the finger's move at a sixth of its speed, unless it is already
+     * faster, the way bubble views used to report drags. Goes through the same frame batch as
+     * touches.
+     *
+     * @deprecated The layout drags, flings and clicks bubbles itself; there is no need to call
+     * this. Use {@link BubbleSimulation#setBubbleMotion(int, double, float)} to set a bubble off.
+     */
+    @Deprecated
+    @Override
+    public void onMove(BubbleInfo bubbleInfo, int centerX, int centerY, int deltaX, int deltaY, double velocity) {
+        float speed = (float) velocity * FLING_SPEED_SCALE;
+        if (speed > bubbleInfo.getSpeed()) {
+            mTouchInput.addMotion(bubbleInfo.getId(), Math.atan2(deltaY, deltaX), speed);
+            startAnimate();
+        }
+    }
+
+    /**
+     * Shows the adapter's items instead of the children added by hand, which are removed. Every
+     * item is simulated, but only the bubbles inside the layout get a view; views of bubbles that
+     * leave it are recycled.
+     */
+    public void setAdapter(BubbleAdapter adapter) {
+        cancelTouch(false);
+        if (mAdapter != null) {
+            mAdapter.unregisterDataSetObserver(mDataSetObserver);
+            recycleAllBubbleViews();
+        }
+        removeAllViews();
+        mAdapter = adapter;
+        synchronized (mSimulation) {
+            mSimulation.clear();
+            if (mAdapter != null) {
+                mAdapter.registerDataSetObserver(mDataSetObserver);
+                loadAdapterItems();
+            }
+            onSimulationChanged();
+        }
+        requestLayout();
+    }
 
-                layout.moveBubble(bubbleInfo);
+    public BubbleAdapter getAdapter() {
+        return mAdapter;
+    }
+
+    private final DataSetObserver mDataSetObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            cancelTouch(false);
+            recycleAllBubbleViews();
+            synchronized (mSimulation) {
+                reloadAdapterItems();
+                onSimulationChanged();
+            }
+            requestLayout();
+        }
+
+        @Override
+        public void onInvalidated() {
+            onChanged();
+        }
+    };
+
+    /**
+     * Adds a bubble for every item, in item order, so each item's position is also its bubble id.
+     * Items without a size hint are not bound here: they start at the size of the first such item
+     * and are measured when their bubble first comes into view.
+     */
+    private void loadAdapterItems() {
+        int count = mAdapter.getCount();
+        if (mBoundViews.length < count) {
+            mBoundViews = new BubbleView[count];
+        }
+        if (mItemIds.length < count) {
+            mItemIds = new long[count];
+            mItemMeasured = new boolean[count];
+        }
+        float estimate = -1;
+        for (int position = 0; position < count; position++) {
+            float size = mAdapter.getItemSize(position);
+            float radius;
+            if (size > 0) {
+                radius = size / 2;
+                mItemMeasured[position] = true;
+            } else if (estimate < 0) {
+                estimate = measureItemRadius(position);
+                radius = estimate;
+                mItemMeasured[position] = true;
+            } else {
+                radius = estimate;
+                mItemMeasured[position] = false;
             }
-            layout.startAnimate();
+            mItemIds[position] = mAdapter.getItemId(position);
+            int speed = getRandomBetween(minPxPerSecond, maxPxPerSecond);
+            int id = mSimulation.addBubble(radius, getRandomRadians(), speed);
+            mSimulation.setBubbleGroup(mSimulation.indexOf(id), mAdapter.getItemGroup(position));
         }
     }
 
-    ;
+    /**
+     * Loads the items again after the data set changed. Bubbles of items whose id is still there
+     * keep their place, motion and, until they are measured again, their size; only the new items
+     * are placed.
+     */
+    private void reloadAdapterItems() {
+        int count = mSimulation.getBubbleCount();
+        Map<Long, Integer> slots = new HashMap<>();
+        float[] kept = new float[count * SavedState.FLOATS_PER_BUBBLE];
+        float[] radii = new float[count];
+        boolean[] sleeping = new boolean[count];
+        int slot = 0;
+        for (int index = 0; index < count; index++) {
+            if (!mSimulation.isPlaced(index)) {
+                continue;
+            }
+            int f = slot * SavedState.FLOATS_PER_BUBBLE;
+            kept[f] = mSimulation.getX(index);
+            kept[f + 1] = mSimulation.getY(index);
+            kept[f + 2] = mSimulation.getVelocityX(index);
+            kept[f + 3] = mSimulation.getVelocityY(index);
+            kept[f + 4] = mSimulation.getOldSpeed(index);
+            radii[slot] = mSimulation.getTargetRadius(index);
+            sleeping[slot] = mSimulation.isSleeping(index);
+            slots.put(mItemIds[mSimulation.getId(index)], slot++);
+        }
 
-    private void moveBubble(BubbleInfo info) {
-        View child = getChildAt(info.getIndex());
-        int[] center = getRadianPoint(info.getSpeed(), child.getLeft() + child.getWidth() / 2, child.getTop() + child.getWidth() / 2, info.getRadians());
-        Rect rect = getBounds(center[0] - child.getWidth() / 2, center[1] - child.getWidth() / 2, child.getMeasuredWidth(), child.getMeasuredHeight());
-        info.setRect(rect);
-        child.layout(rect.left, rect.top, rect.right, rect.bottom);
+        mSimulation.clear();
+        loadAdapterItems();
+        for (int position = 0; position < mAdapter.getCount(); position++) {
+            Integer keptSlot = slots.get(mItemIds[position]);
+            if (keptSlot == null) {
+                continue;
+            }
+            int index = mSimulation.indexOf(position);
+            int f = keptSlot * SavedState.FLOATS_PER_BUBBLE;
+            if (mAdapter.getItemSize(position) <= 0) {
+                mSimulation.setBubbleRadius(index, radii[keptSlot]);
+                mItemMeasured[position] = false;
+            }
+            mSimulation.setBubbleState(index, kept[f], kept[f + 1], kept[f + 2], kept[f + 3], kept[f + 4],
+                    sleeping[keptSlot]);
+        }
     }
 
-    private void slowerBubbleIfNeeded(BubbleInfo info) {
-        if (info.getOldSpeed() > 0 && info.getSpeed() > info.getOldSpeed()) {
-            info.setSpeed(info.getSpeed() - 1);
+    private float getItemRadius(int position) {
+        float size = mAdapter.getItemSize(position);
+        if (size > 0) {
+            return size / 2;
         }
+        return measureItemRadius(position);
     }
 
-    private BubbleInfo getNewMoveInfo(BubbleInfo bubbleInfo, View child, List<BubbleInfo> overlapRect) {
-        Rect oldRect = bubbleInfo.getRect();
+    private float measureItemRadius(int position) {
+        BubbleView view = obtainBubbleView();
+        mAdapter.onBindView(view, position);
+        mRecycledViews.add(view);
+        return view.measureBubbleSize() / 2f;
+    }
 
-        Point cooperate = getCooperatePoint(overlapRect);
-        Point overlapBoundPoint = ifOverlapBounds(bubbleInfo);
-        if (overlapBoundPoint != null) {
-            cooperate = new Point((cooperate.x + overlapBoundPoint.x) / 2, (cooperate.y + overlapBoundPoint.y) / 2);
+    /**
+     * Binds views to bubbles that came into the layout and recycles those of bubbles that left it.
+     */
+    private void updateAdapterViews() {
+        if (mAdapter == null) {
+            return;
+        }
+        boolean changed = false;
+        for (int index = 0; index < mSimulation.getBubbleCount(); index++) {
+            int id = mSimulation.getId(index);
+            boolean visible = isBubblePlaced(index) && isInViewport(index, getCullingMargin());
+            if (visible && mBoundViews[id] == null) {
+                bindBubbleView(id, index);
+                changed = true;
+            } else if (!visible && mBoundViews[id] != null) {
+                recycleBubbleView(id);
+                changed = true;
+            }
         }
+        if (changed) {
+            invalidate();
+        }
+    }
 
-        float overlapRadians = (float) getRadians(new float[]{oldRect.exactCenterX(), oldRect.exactCenterY()}, new float[]{cooperate.x, cooperate.y});
-        double reverseRadians = getReverseRadians(overlapRadians);
+    /**
+     * Returns whether the bubble touches the visible part of the world grown by {@code margin}.
+     */
+    private boolean isInViewport(int index, int margin) {
+        float x = getBubbleX(index);
+        float y = getBubbleY(index);
+        float radius = getBubbleRadius(index) + margin;
+        int left = getScrollX();
+        int top = getScrollY();
+        return x + radius >= left && x - radius <= left + mLayoutWidth
+                && y + radius >= top && y - radius <= top + mLayoutHeight;
+    }
 
-        int[] centerNew = getRadianPoint(bubbleInfo.getSpeed(), child.getLeft() + child.getWidth() / 2, child.getTop() + child.getWidth() / 2, reverseRadians);
-        Rect rectNew = getBounds(centerNew[0] - child.getWidth() / 2, centerNew[1] - child.getWidth() / 2, child.getMeasuredWidth(), child.getMeasuredHeight());
+    private void bindBubbleView(int id, int index) {
+        BubbleView view = obtainBubbleView();
+        mAdapter.onBindView(view, id);
+        if (!mItemMeasured[id]) {
+            // First time on screen: swap the estimated size for the measured one and make room.
+            mItemMeasured[id] = true;
+            float radius = view.measureBubbleSize() / 2f;
+            synchronized (mSimulation) {
+                index = mSimulation.indexOf(id);
+                if (mSimulation.getTargetRadius(index) != radius) {
+                    mSimulation.animateBubbleRadius(index, radius, 0);
+                    onSimulationChanged();
+                }
+            }
+        }
+        view.setBubbleId(id);
+        view.setBubbleInfo(new BubbleInfo(mSimulation, id));
+        view.setBubbleCacheEnabled(mBubbleCacheEnabled && mRenderMode != RENDER_MODE_CANVAS);
+        addViewInLayout(view, -1, new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT), true);
+        measureBubbleChild(view, index);
+        layoutChild(view, index);
+        mBoundViews[id] = view;
+    }
+
+    private void recycleBubbleView(int id) {
+        BubbleView view = mBoundViews[id];
+        mBoundViews[id] = null;
+        removeViewInLayout(view);
+        view.setBubbleId(BubbleSimulation.NO_ID);
+        view.setBubbleInfo(null);
+        view.setBubbleSize(0);
+        mRecycledViews.add(view);
+    }
+
+    private void recycleAllBubbleViews() {
+        for (int id = 0; id < mBoundViews.length; id++) {
+            if (mBoundViews[id] != null) {
+                recycleBubbleView(id);
+            }
+        }
+    }
+
+    private BubbleView obtainBubbleView() {
+        if (!mRecycledViews.isEmpty()) {
+            return mRecycledViews.remove(mRecycledViews.size() - 1);
+        }
+        return mAdapter.onCreateView(this);
+    }
+
+    private void measureBubbleChild(View child, int index) {
+        int size = Math.round(getBubbleRadius(index) * 2);
+        int spec = MeasureSpec.makeMeasureSpec(size, MeasureSpec.EXACTLY);
+        child.measure(spec, spec);
+    }
+
+    /**
+     * Measures and lays out the child again if its bubble's radius changed since, as it does while
+     * its size is animated.
+     */
+    private void resizeChild(View child, int index) {
+        int size = Math.round(getBubbleRadius(index) * 2);
+        if (child.getMeasuredWidth() == size) {
+            return;
+        }
+        measureBubbleChild(child, index);
+        int left = (int) getBubbleX(index) - size / 2;
+        int top = (int) getBubbleY(index) - size / 2;
+        child.layout(left, top, left + size, top + child.getMeasuredHeight());
+    }
+
+    private void updateBubbleRadii() {
+        synchronized (mSimulation) {
+            for (int i = 0; i < getChildCount(); i++) {
+                View child = getChildAt(i);
+                if (child instanceof BubbleView) {
+                    int index = mSimulation.indexOf(((BubbleView) child).getBubbleId());
+                    if (index < 0) {
+                        continue;
+                    }
+                    if (((BubbleView) child).getBubbleSize() > 0 || mSimulation.isResizing(index)) {
+                        // Keep the size it is animated to rather than its content's.
+                        measureBubbleChild(child, index);
+                    } else {
+                        mSimulation.setBubbleRadius(index, child.getMeasuredWidth() / 2f);
+                    }
+                }
+            }
+        }
+    }
 
-        BubbleInfo bubbleInfoNew = new BubbleInfo();
-        bubbleInfoNew.setIndex(bubbleInfo.getIndex());
-        bubbleInfoNew.setSpeed(bubbleInfo.getSpeed());
-        bubbleInfoNew.setOldSpeed(bubbleInfo.getOldSpeed());
-        bubbleInfoNew.setRadians(reverseRadians);
-        bubbleInfoNew.setRect(rectNew);
+    private int getRandomBetween(int min, int max) {
+        return min + mRandom.nextInt(max - min + 1);
+    }
 
-        return bubbleInfoNew;
+    private List<BubbleView> getBubbleChildren() {
+        List<BubbleView> bubbles = new ArrayList<>();
+        for (int i = 0; i < getChildCount(); i++) {
+            View view = getChildAt(i);
+            if (view instanceof BubbleView) {
+                bubbles.add((BubbleView) view);
+            }
+        }
+        return bubbles;
+    }
 
+    private final FrameTicker.Callback mFrameCallback = new FrameTicker.Callback() {
+        @Override
+        public void onFrame(long frameTimeNanos) {
+            flushTouchInput();
+            if (mSimulationThread != null) {
+                onThreadedFrame(frameTimeNanos);
+                return;
+            }
+            if (mLastFrameTimeNanos > 0 && frameTimeNanos > mLastFrameTimeNanos) {
+                long stepStart = mFrameMetricsListener != null ? System.nanoTime() : 0;
+                mSimulation.step(frameTimeNanos - mLastFrameTimeNanos);
+                long layoutStart = mFrameMetricsListener != null ? System.nanoTime() : 0;
+                updateAdapterViews();
+                applySimulation();
+                if (mFrameMetricsListener != null) {
+                    mFrameMetrics.recordFrame(layoutStart - stepStart, System.nanoTime() - layoutStart,
+                            frameTimeNanos - mLastFrameTimeNanos, mExpectedFrameNanos,
+                            mSimulation.getCollisionCount(), mSimulation.getBounceCount(),
+                            mSimulation.getAwakeCount(), mSimulation.getSleepingCount());
+                    mFrameMetricsListener.onFrame(mFrameMetrics);
+                }
+            }
+            mLastFrameTimeNanos = frameTimeNanos;
+            if (mSimulation.isMoving()) {
+                mTicker.postFrame();
+            } else {
+                mAnimating = false;
+            }
+        }
+    };
+
+    /**
+     * Frame of the simulation thread mode: hands the elapsed time to the worker and shows the
+     * newest snapshot it published, so the main thread never waits for a step.
+     */
+    private void onThreadedFrame(long frameTimeNanos) {
+        if (mLastFrameTimeNanos > 0 && frameTimeNanos > mLastFrameTimeNanos) {
+            mSimulationThread.requestStep(frameTimeNanos - mLastFrameTimeNanos);
+        }
+        mSnapshot = mSimulationThread.acquireSnapshot();
+        if (mSnapshot != null) {
+            long layoutStart = mFrameMetricsListener != null ? System.nanoTime() : 0;
+            updateAdapterViews();
+            applySimulation();
+            if (mFrameMetricsListener != null && mLastFrameTimeNanos > 0) {
+                mFrameMetrics.recordFrame(mSnapshot.mStepNanos, System.nanoTime() - layoutStart,
+                        frameTimeNanos - mLastFrameTimeNanos, mExpectedFrameNanos,
+                        mSnapshot.mCollisionCount, mSnapshot.mBounceCount,
+                        mSnapshot.mAwakeCount, mSnapshot.mSleepingCount);
+                mFrameMetricsListener.onFrame(mFrameMetrics);
+            }
+        }
+        mLastFrameTimeNanos = frameTimeNanos;
+        if (mSnapshot == null || mSnapshot.mMoving || mSimulationThread.hasPendingInput(mSnapshot)) {
+            mTicker.postFrame();
+        } else {
+            mAnimating = false;
+        }
     }
 
-    private void dealWithOverlap() {
-        List<BubbleInfo> tempBubbleInfoList = new ArrayList<>();
-        for (BubbleInfo info : mBubbleInfos) {
-            List<BubbleInfo> overlapList = hasOverlap(info);
-            if (overlapList.size() > 0) {
-                BubbleInfo bubbleInfoNew = getNewMoveInfo(info, getChildAt(info.getIndex()), overlapList);
-                slowerBubbleIfNeeded(bubbleInfoNew);
-                tempBubbleInfoList.add(bubbleInfoNew);
+    /**
+     * Starts stepping the simulation once per display frame, unless it is already running, the
+     * layout is not showing or no bubble is moving.
+     */
+    private void startAnimate() {
+        if (mAnimating || !isShowing()) {
+            return;
+        }
+        if (mSimulationThreadEnabled) {
+            if (mSimulationThread == null) {
+                mSimulationThread = new SimulationThread(mSimulation);
+                mSimulationThread.start();
+            }
+            if (!isSimulationMoving() && !mSimulationThread.hasPendingInput(mSnapshot) && !hasTouchInput()) {
+                return;
             }
+        } else if (!mSimulation.isMoving() && !hasTouchInput()) {
+            return;
         }
+        mAnimating = true;
+        mLastFrameTimeNanos = 0;
+        mTicker.postFrame();
+    }
 
-        for (int i = 0; i < tempBubbleInfoList.size(); i++) {
-            BubbleInfo tempBubbleInfo = tempBubbleInfoList.get(i);
-            BubbleInfo oldBubbleInfo = mBubbleInfos.get(tempBubbleInfo.getIndex());
-            oldBubbleInfo.setRadians(tempBubbleInfo.getRadians());
-            oldBubbleInfo.setOldSpeed(tempBubbleInfo.getOldSpeed());
-            oldBubbleInfo.setIndex(tempBubbleInfo.getIndex());
-            oldBubbleInfo.setSpeed(tempBubbleInfo.getSpeed());
-            oldBubbleInfo.setRect(tempBubbleInfo.getRect());
+    private boolean isSimulationMoving() {
+        synchronized (mSimulation) {
+            return mSimulation.isMoving();
         }
+    }
 
+    private void stopAnimate() {
+        mAnimating = false;
+        mTicker.cancel();
     }
 
-    private Point getCooperatePoint(List<BubbleInfo> overlapRect) {
-        int totalX = 0;
-        int totalY = 0;
-        for (BubbleInfo info : overlapRect) {
-            totalX += info.getRect().exactCenterX();
-            totalY += info.getRect().exactCenterY();
+    private void quitSimulationThread() {
+        if (mSimulationThread != null) {
+            mSimulationThread.quit();
+            mSimulationThread = null;
+            mSnapshot = null;
         }
+    }
 
-        return new Point(totalX / overlapRect.size(), totalY / overlapRect.size());
+    /**
+     * Called with the simulation's monitor held after the main thread changed it.
+     */
+    private void onSimulationChanged() {
+        if (mSimulationThread != null) {
+            mSimulationThread.onSimulationChanged();
+        }
+        mSnapshot = null;
+    }
+
+    /**
+     * Runs the physics on a worker thread instead of the main thread. The main thread then only
+     * hands over the frame time and touch input, and moves or draws the bubbles from the newest
+     * positions the worker published.
+     */
+    public void setSimulationThreadEnabled(boolean enabled) {
+        if (enabled == mSimulationThreadEnabled) {
+            return;
+        }
+        mSimulationThreadEnabled = enabled;
+        stopAnimate();
+        if (!enabled) {
+            quitSimulationThread();
+        }
+        startAnimate();
     }
 
-    private double getReverseRadians(double radians) {
-        double reverseRadians;
-        if (radians > Math.PI) {
-            reverseRadians = radians - Math.PI;
+    public boolean isSimulationThreadEnabled() {
+        return mSimulationThreadEnabled;
+    }
+
+    private boolean isShowing() {
+        return getWindowToken() != null && getWindowVisibility() == VISIBLE && isShown();
+    }
+
+    private void updateAnimateState() {
+        if (mTicker == null) {
+            // Visibility callbacks can arrive from the View constructor, before init().
+            return;
+        }
+        if (isShowing()) {
+            startAnimate();
         } else {
-            reverseRadians = radians + Math.PI;
+            stopAnimate();
         }
+    }
 
-        return reverseRadians;
+    /**
+     * Selects how bubbles are moved and drawn, one of {@link #RENDER_MODE_VIEWS},
+     * {@link #RENDER_MODE_CANVAS} or {@link #RENDER_MODE_TRANSLATION}.
+     */
+    public void setRenderMode(int renderMode) {
+        if (mRenderMode != renderMode) {
+            if (mRenderMode == RENDER_MODE_TRANSLATION && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                resetTranslations();
+            }
+            mRenderMode = renderMode;
+            requestLayout();
+            invalidate();
+        }
     }
 
-    private List<BubbleInfo> hasOverlap(BubbleInfo bubbleInfo) {
-        int count = mBubbleInfos.size();
-        List<BubbleInfo> overlapList = new ArrayList<>();
-        if (bubbleInfo.getRect() != null) {
-            for (int i = 0; i < count; i++) {
-                BubbleInfo otherInfo = mBubbleInfos.get(i);
-                if (i != bubbleInfo.getIndex()) {
-                    if (otherInfo.getRect() != null) {
-                        if (doCircleOverlap(otherInfo.getRect(), bubbleInfo.getRect())) {
-                            overlapList.add(otherInfo);
-                        }
-                    }
-                }
+    public int getRenderMode() {
+        return mRenderMode;
+    }
+
+    /**
+     * Rasterizes each bubble once instead of redrawing its circle and text every frame. Child views
+     * get a hardware layer; {@link #RENDER_MODE_CANVAS} blits bitmaps from a cache shared by all
+     * bubbles with the same size, colors and text. Bubbles are rasterized again when any of those
+     * change.
+     */
+    public void setBubbleCacheEnabled(boolean enabled) {
+        if (mBubbleCacheEnabled != enabled) {
+            mBubbleCacheEnabled = enabled;
+            if (!enabled && mBitmapCache != null) {
+                mBitmapCache.clear();
             }
+            requestLayout();
+            invalidate();
         }
-        return overlapList;
     }
 
-    private void reverseIfOverlapBounds(BubbleInfo bubbleInfo) {
-        Point overlapPoint = ifOverlapBounds(bubbleInfo);
-        Rect totalRect = new Rect(this.getLeft(), this.getTop(), this.getRight(), this.getBottom());
-        if (overlapPoint != null) {
-            float overlapRadians = (float) getRadians(new float[]{bubbleInfo.getRect().exactCenterX(), bubbleInfo.getRect().exactCenterY()}, new float[]{overlapPoint.x, overlapPoint.y});
-            if (!totalRect.contains(bubbleInfo.getRect().centerX(), bubbleInfo.getRect().centerY())) {
-                bubbleInfo.setRadians(overlapRadians);
+    public boolean isBubbleCacheEnabled() {
+        return mBubbleCacheEnabled;
+    }
+
+    private void applySimulation() {
+        if (mRenderMode == RENDER_MODE_CANVAS) {
+            for (int i = 0; i < getChildCount(); i++) {
+                View child = getChildAt(i);
+                int index = getSimulationIndex(child);
+                if (index >= 0 && isBubblePlaced(index) && isInViewport(index, 0)) {
+                    resizeChild(child, index);
+                }
+            }
+            invalidate();
+            return;
+        }
+        boolean translate = mRenderMode == RENDER_MODE_TRANSLATION && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+        // Bubbles beyond the margin were last moved while already out of sight, so leave them.
+        int margin = getCullingMargin();
+        for (int i = 0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            int index = getSimulationIndex(child);
+            if (index < 0 || !isBubblePlaced(index) || !isInViewport(index, margin)) {
+                continue;
+            }
+            resizeChild(child, index);
+            if (translate) {
+                translateChild(child, getBubbleX(index), getBubbleY(index));
             } else {
-                double reverseRadians = getReverseRadians(overlapRadians);
-                bubbleInfo.setRadians(reverseRadians);
+                int width = child.getMeasuredWidth();
+                int left = (int) getBubbleX(index) - width / 2;
+                int top = (int) getBubbleY(index) - width / 2;
+                child.layout(left, top, left + width, top + child.getMeasuredHeight());
             }
-            slowerBubbleIfNeeded(bubbleInfo);
         }
     }
 
-    private Point ifOverlapBounds(BubbleInfo bubbleInfo) {
-        Rect rect = new Rect(this.getLeft(), this.getTop(), this.getRight(), this.getBottom());
-        if (bubbleInfo.getRect() != null) {
-            Rect bubbleRect = bubbleInfo.getRect();
-            List<Point> overlapPoints = new ArrayList<>();
-            if (rect.left >= bubbleRect.left) {
-                Point overlapPoint = new Point(rect.left, bubbleRect.centerY());
-                overlapPoints.add(overlapPoint);
+    /**
+     * Returns the bubble's center from the simulation thread's latest snapshot when it runs, or
+     * straight from the simulation otherwise. Without a snapshot of the bubble, the simulation is
+     * read under its monitor while the thread runs, as the thread may be stepping it. Bubbles are
+     * only added, removed and renumbered on the main thread, so their count, ids and indices are
+     * read without the monitor.
+     */
+    private float getBubbleX(int index) {
+        if (mSnapshot != null) {
+            int id = mSimulation.getId(index);
+            if (mSnapshot.contains(id)) {
+                return mSnapshot.getX(id);
             }
-            if (rect.top >= bubbleRect.top) {
-                Point overlapPoint = new Point(bubbleRect.centerX(), rect.top);
-                overlapPoints.add(overlapPoint);
+        }
+        if (mSimulationThread != null) {
+            synchronized (mSimulation) {
+                return mSimulation.getX(index);
             }
-            if (rect.right <= bubbleRect.right) {
-                Point overlapPoint = new Point(rect.right, bubbleRect.centerY());
-                overlapPoints.add(overlapPoint);
+        }
+        return mSimulation.getX(index);
+    }
+
+    private float getBubbleY(int index) {
+        if (mSnapshot != null) {
+            int id = mSimulation.getId(index);
+            if (mSnapshot.contains(id)) {
+                return mSnapshot.getY(id);
             }
-            if (rect.bottom <= bubbleRect.bottom) {
-                Point overlapPoint = new Point(bubbleRect.centerX(), rect.bottom);
-                overlapPoints.add(overlapPoint);
+        }
+        if (mSimulationThread != null) {
+            synchronized (mSimulation) {
+                return mSimulation.getY(index);
             }
+        }
+        return mSimulation.getY(index);
+    }
 
-            if (overlapPoints.size() > 0) {
-                int totalX = 0;
-                int totalY = 0;
-                for (Point point : overlapPoints) {
-                    totalX += point.x;
-                    totalY += point.y;
-                }
-                return new Point(totalX / overlapPoints.size(), totalY / overlapPoints.size());
+    private float getBubbleRadius(int index) {
+        if (mSnapshot != null) {
+            int id = mSimulation.getId(index);
+            if (mSnapshot.contains(id)) {
+                return mSnapshot.getRadius(id);
+            }
+        }
+        if (mSimulationThread != null) {
+            synchronized (mSimulation) {
+                return mSimulation.getRadius(index);
             }
         }
+        return mSimulation.getRadius(index);
+    }
 
-        return null;
+    private boolean isBubblePlaced(int index) {
+        if (mSnapshot != null) {
+            int id = mSimulation.getId(index);
+            if (mSnapshot.contains(id)) {
+                return mSnapshot.isPlaced(id);
+            }
+        }
+        if (mSimulationThread != null) {
+            synchronized (mSimulation) {
+                return mSimulation.isPlaced(index);
+            }
+        }
+        return mSimulation.isPlaced(index);
+    }
+
+    private boolean isBubbleResizing(int index) {
+        if (mSnapshot != null) {
+            int id = mSimulation.getId(index);
+            if (mSnapshot.contains(id)) {
+                return mSnapshot.isResizing(id);
+            }
+        }
+        if (mSimulationThread != null) {
+            synchronized (mSimulation) {
+                return mSimulation.isResizing(index);
+            }
+        }
+        return mSimulation.isResizing(index);
+    }
+
+    private int getSimulationIndex(View child) {
+        if (child instanceof BubbleView) {
+            return mSimulation.indexOf(((BubbleView) child).getBubbleId());
+        }
+        return BubbleSimulation.NO_ID;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void translateChild(View child, float centerX, float centerY) {
+        child.setTranslationX(centerX - (child.getLeft() + child.getRight()) / 2f);
+        child.setTranslationY(centerY - (child.getTop() + child.getBottom()) / 2f);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void resetTranslations() {
+        for (int i = 0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            child.setTranslationX(0);
+            child.setTranslationY(0);
+        }
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        long drawStart = mFrameMetricsListener != null ? System.nanoTime() : 0;
+        if (mRenderMode == RENDER_MODE_CANVAS) {
+            drawBubbles(canvas);
+        } else {
+            super.dispatchDraw(canvas);
+        }
+        if (mFrameMetricsListener != null) {
+            mFrameMetrics.recordDraw(System.nanoTime() - drawStart);
+        }
+    }
+
+    private void drawBubbles(Canvas canvas) {
+        for (int i = 0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            int index = getSimulationIndex(child);
+            if (index < 0 || !isBubblePlaced(index) || child.getVisibility() != VISIBLE || !isInViewport(index, 0)) {
+                continue;
+            }
+            int saveCount = canvas.save();
+            canvas.translate(getBubbleX(index) - child.getWidth() / 2f, getBubbleY(index) - child.getHeight() / 2f);
+            // A bubble being resized would rasterize a new bitmap every frame.
+            if (mBubbleCacheEnabled && !isBubbleResizing(index)) {
+                if (mBitmapCache == null) {
+                    mBitmapCache = new BubbleBitmapCache(BITMAP_CACHE_MAX_BYTES);
+                }
+                ((BubbleView) child).drawCachedBubble(canvas, mBitmapCache);
+            } else {
+                ((BubbleView) child).drawBubble(canvas);
+            }
+            canvas.restoreToCount(saveCount);
+        }
     }
 
     private double getRandomRadians() {
-        return Math.random() * 2 * Math.PI;
+        return mRandom.nextDouble() * 2 * Math.PI;
     }
 
-    private double getRadians(float[] fromPoint, float[] toPoint) {
-        return Math.atan2(toPoint[1] - fromPoint[1], toPoint[0] - fromPoint[0]);
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        startAnimate();
     }
 
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
-        if (mTimer != null) {
-            mTimer.cancel();
-            mTimer = null;
+        stopAnimate();
+        quitSimulationThread();
+        cancelTouch(true);
+        flushTouchInput();
+        synchronized (mSimulation) {
+            mSimulation.releaseWorkers();
+        }
+        mScroller.forceFinished(true);
+        if (mVelocityTracker != null) {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
+        if (mBitmapCache != null) {
+            mBitmapCache.clear();
         }
     }
 
     @Override
-    public void onMove(BubbleInfo bubbleInfo, int centerX, int centerY, int deltaX, int deltaY, double velocity) {
-        velocity /= 6;
-        if (velocity > bubbleInfo.getSpeed()) {
-            float radians = (float) getRadians(new float[]{centerX, centerY}, new float[]{centerX + deltaX, centerY + deltaY});
-            bubbleInfo.setRadians(radians);
-            bubbleInfo.setSpeed((int) velocity);
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateAnimateState();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateAnimateState();
+    }
+
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        SavedState state = new SavedState(super.onSaveInstanceState());
+        if (mRestoredState != null) {
+            // Not laid out since the restore, so the simulation does not hold it yet.
+            state.keys = mRestoredState.keys;
+            state.bubbles = mRestoredState.bubbles;
+            state.sleeping = mRestoredState.sleeping;
+            state.scrollX = mRestoredState.scrollX;
+            state.scrollY = mRestoredState.scrollY;
+            state.worldWidth = mRestoredState.worldWidth;
+            state.worldHeight = mRestoredState.worldHeight;
+            return state;
+        }
+        float width = getWorldWidth();
+        float height = getWorldHeight();
+        if (width <= 0 || height <= 0) {
+            return state;
+        }
+        synchronized (mSimulation) {
+            int[] indices = new int[mSimulation.getBubbleCount()];
+            long[] keys = new long[indices.length];
+            int count = getBubbleKeys(keys, indices);
+            int saved = 0;
+            for (int k = 0; k < count; k++) {
+                if (mSimulation.isPlaced(indices[k])) {
+                    saved++;
+                }
+            }
+            state.keys = new long[saved];
+            state.bubbles = new float[saved * SavedState.FLOATS_PER_BUBBLE];
+            state.sleeping = new boolean[saved];
+            int slot = 0;
+            for (int k = 0; k < count; k++) {
+                int index = indices[k];
+                if (!mSimulation.isPlaced(index)) {
+                    continue;
+                }
+                // Positions are kept relative to the center of the world, which a new size moves.
+                int f = slot * SavedState.FLOATS_PER_BUBBLE;
+                state.keys[slot] = keys[k];
+                state.bubbles[f] = mSimulation.getX(index) - width / 2;
+                state.bubbles[f + 1] = mSimulation.getY(index) - height / 2;
+                state.bubbles[f + 2] = mSimulation.getVelocityX(index);
+                state.bubbles[f + 3] = mSimulation.getVelocityY(index);
+                state.bubbles[f + 4] = mSimulation.getOldSpeed(index);
+                state.sleeping[slot] = mSimulation.isSleeping(index);
+                slot++;
+            }
+        }
+        state.scrollX = getScrollX() + mLayoutWidth / 2f - width / 2;
+        state.scrollY = getScrollY() + mLayoutHeight / 2f - height / 2;
+        state.worldWidth = width;
+        state.worldHeight = height;
+        return state;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+        if (savedState.keys != null) {
+            mRestoredState = savedState;
+            requestLayout();
+        }
+    }
+
+    /**
+     * Puts every bubble saved in {@code state} back where it was, with its velocity and sleep state.
+     * A world of another size scales the pack about its center by one factor, the one that fits it
+     * in, so that bubbles keep their distances however the aspect ratio changed. Bubbles then left
+     * overlapping or outside the world are woken to make room. Bubbles that were not saved keep
+     * their placement.
+     */
+    private void restoreBubbles(SavedState state) {
+        Map<Long, Integer> slots = new HashMap<>();
+        for (int slot = 0; slot < state.keys.length; slot++) {
+            slots.put(state.keys[slot], slot);
+        }
+        int[] indices = new int[mSimulation.getBubbleCount()];
+        long[] keys = new long[indices.length];
+        int count = getBubbleKeys(keys, indices);
+        float width = getWorldWidth();
+        float height = getWorldHeight();
+        float scale = Math.min(1, Math.min(width / state.worldWidth, height / state.worldHeight));
+        for (int k = 0; k < count; k++) {
+            Integer slot = slots.get(keys[k]);
+            if (slot == null) {
+                continue;
+            }
+            int f = slot * SavedState.FLOATS_PER_BUBBLE;
+            mSimulation.setBubbleState(indices[k], width / 2 + state.bubbles[f] * scale,
+                    height / 2 + state.bubbles[f + 1] * scale,
+                    state.bubbles[f + 2], state.bubbles[f + 3], state.bubbles[f + 4], state.sleeping[slot]);
+        }
+        mSimulation.wakeUnsettled();
+        scrollTo((int) (width / 2 + state.scrollX * scale - mLayoutWidth / 2f),
+                (int) (height / 2 + state.scrollY * scale - mLayoutHeight / 2f));
+        updateActiveRegion();
+    }
+
+    /**
+     * Fills in the key every bubble is saved under, with its simulation index, and returns how many
+     * there are. The key is the adapter's item id or, for children added by hand, the view id, or
+     * the child's position among the bubbles when it has none.
+     */
+    private int getBubbleKeys(long[] outKeys, int[] outIndices) {
+        if (mAdapter != null) {
+            int count = mSimulation.getBubbleCount();
+            for (int index = 0; index < count; index++) {
+                outKeys[index] = mAdapter.getItemId(mSimulation.getId(index));
+                outIndices[index] = index;
+            }
+            return count;
+        }
+        int count = 0;
+        int order = 0;
+        for (int i = 0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            if (!(child instanceof BubbleView)) {
+                continue;
+            }
+            int index = getSimulationIndex(child);
+            if (index >= 0) {
+                outKeys[count] = child.getId() != NO_ID ? child.getId() : KEY_BY_ORDER + order;
+                outIndices[count] = index;
+                count++;
+            }
+            order++;
         }
+        return count;
+    }
+
+    /**
+     * A finger on the layout, either dragging a bubble or panning the world.
+     */
+    private static class TouchPointer {
+        int id;
+        float downX;
+        float downY;
+        float lastX;
+        float lastY;
+        boolean moved;
+        int bubbleId;
+        float offsetX;
+        float offsetY;
+        float radius;
+        float oldSpeed;
+        // The bubble's view, for its deprecated move listener.
+        BubbleView view;
+        // Where the bubble should be held, not yet handed to the simulation.
+        float targetX;
+        float targetY;
+        boolean targetPending;
+    }
+
+    /**
+     * Bubbles of a layout, keyed so they can be matched up again after the layout is rebuilt. Like
+     * any view's state it is only saved when the layout has an id.
+     */
+    static class SavedState extends BaseSavedState {
+
+        // x and y from the center of the world, velocity, old speed.
+        static final int FLOATS_PER_BUBBLE = 5;
+
+        long[] keys;
+        float[] bubbles;
+        boolean[] sleeping;
+        // Center of the viewport from the center of the world, and the world's size.
+        float scrollX;
+        float scrollY;
+        float worldWidth;
+        float worldHeight;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            keys = in.createLongArray();
+            bubbles = in.createFloatArray();
+            sleeping = in.createBooleanArray();
+            scrollX = in.readFloat();
+            scrollY = in.readFloat();
+            worldWidth = in.readFloat();
+            worldHeight = in.readFloat();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeLongArray(keys);
+            out.writeFloatArray(bubbles);
+            out.writeBooleanArray(sleeping);
+            out.writeFloat(scrollX);
+            out.writeFloat(scrollY);
+            out.writeFloat(worldWidth);
+            out.writeFloat(worldHeight);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
+
+    public interface FrameMetricsListener {
+        /**
+         * Called on the main thread after every animation frame. {@code metrics} is reused for the
+         * next frame.
+         */
+        void onFrame(FrameMetrics metrics);
     }
 }
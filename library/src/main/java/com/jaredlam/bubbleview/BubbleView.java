@@ -17,28 +17,37 @@
 package com.jaredlam.bubbleview;
 
 import android.content.Context;
+import android.content.res.ColorStateList;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.os.Build;
+import android.text.Layout;
 import android.util.AttributeSet;
+import android.view.Gravity;
 import android.view.MotionEvent;
-import android.view.VelocityTracker;
-import android.view.ViewConfiguration;
+import android.view.View;
 import android.widget.TextView;
 
+import com.jaredlam.bubbleview.simulation.BubbleSimulation;
+
 public class BubbleView extends TextView {
 
     private Paint mPaint;
 
-    private ViewConfiguration mViewConfiguration;
-    private VelocityTracker mVelocityTracker;
-    private int mLastX;
-    private int mLastY;
-
-    private boolean mIsMoving;
-    private MoveListener mMoveListener;
     private BubbleInfo mBubbleInfo;
+    private MoveListener mMoveListener;
+
+    private Bitmap mCachedBitmap;
+    private boolean mCacheDirty = true;
+
+    private int mBubbleId = BubbleSimulation.NO_ID;
+    private int mBubbleGroup;
+    private float mBubbleSize;
+    private final Rect mTextBounds = new Rect();
+    private float mTextMeasureWidth = -1;
 
     public BubbleView(Context context) {
         super(context);
@@ -60,8 +69,6 @@ public class BubbleView extends TextView {
         mPaint.setStyle(Paint.Style.FILL);
         mPaint.setAntiAlias(true);
         mPaint.setColor(Color.RED);
-
-        mViewConfiguration = ViewConfiguration.get(context);
     }
 
     @Override
@@ -83,87 +90,238 @@ public class BubbleView extends TextView {
         super.onDraw(canvas);
     }
 
+    /**
+     * Draws the circle and the text into a canvas positioned at this view's top left corner,
+     * reusing the text layout TextView already keeps. Used by {@link BubbleLayout#RENDER_MODE_CANVAS},
+     * where the parent draws its bubbles itself.
+     */
+    void drawBubble(Canvas canvas) {
+        int width = getWidth();
+        canvas.drawCircle(width / 2f, getHeight() / 2f, width / 2f, mPaint);
+
+        Layout layout = getLayout();
+        if (layout == null) {
+            return;
+        }
+        int boxHeight = getHeight() - getExtendedPaddingTop() - getExtendedPaddingBottom();
+        int verticalOffset = 0;
+        int verticalGravity = getGravity() & Gravity.VERTICAL_GRAVITY_MASK;
+        if (verticalGravity == Gravity.CENTER_VERTICAL) {
+            verticalOffset = (boxHeight - layout.getHeight()) / 2;
+        } else if (verticalGravity == Gravity.BOTTOM) {
+            verticalOffset = boxHeight - layout.getHeight();
+        }
+        getPaint().setColor(getCurrentTextColor());
+        getPaint().drawableState = getDrawableState();
+        canvas.translate(getCompoundPaddingLeft(), getExtendedPaddingTop() + verticalOffset);
+        layout.draw(canvas);
+    }
+
+    /**
+     * Same as {@link #drawBubble(Canvas)}, but blits a bitmap rasterized once from the shared cache.
+     * The bitmap is only looked up again after the text, colors or size changed.
+     */
+    void drawCachedBubble(Canvas canvas, BubbleBitmapCache cache) {
+        if (mCacheDirty || mCachedBitmap == null) {
+            mCachedBitmap = obtainBubbleBitmap(cache);
+            mCacheDirty = false;
+        }
+        if (mCachedBitmap != null) {
+            canvas.drawBitmap(mCachedBitmap, 0, 0, null);
+        } else {
+            drawBubble(canvas);
+        }
+    }
+
+    private Bitmap obtainBubbleBitmap(BubbleBitmapCache cache) {
+        int width = getWidth();
+        int height = getHeight();
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        String key = new StringBuilder()
+                .append(width).append('x').append(height)
+                .append('#').append(mPaint.getColor())
+                .append('#').append(getCurrentTextColor())
+                .append('#').append(getTextSize())
+                .append('#').append(getText())
+                .toString();
+        Bitmap bitmap = cache.get(key);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            drawBubble(new Canvas(bitmap));
+            cache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Renders this bubble into a hardware layer, so that moving it does not redraw the circle and
+     * the text. The layer is redrawn whenever the view is invalidated.
+     */
+    void setBubbleCacheEnabled(boolean enabled) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            setLayerType(enabled ? LAYER_TYPE_HARDWARE : LAYER_TYPE_NONE, null);
+        }
+    }
+
+    private void invalidateCache() {
+        mCacheDirty = true;
+        mTextMeasureWidth = -1;
+        invalidateParent();
+    }
+
+    @Override
+    protected void onTextChanged(CharSequence text, int start, int lengthBefore, int lengthAfter) {
+        super.onTextChanged(text, start, lengthBefore, lengthAfter);
+        invalidateCache();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        invalidateCache();
+    }
+
+    @Override
+    protected void drawableStateChanged() {
+        super.drawableStateChanged();
+        invalidateCache();
+    }
+
+    @Override
+    public void setTextColor(int color) {
+        super.setTextColor(color);
+        invalidateCache();
+    }
+
+    @Override
+    public void setTextColor(ColorStateList colors) {
+        super.setTextColor(colors);
+        invalidateCache();
+    }
+
+    @Override
+    public void setTextSize(int unit, float size) {
+        super.setTextSize(unit, size);
+        invalidateCache();
+    }
+
+    private void invalidateParent() {
+        // When the parent draws this bubble itself our own invalidate does not reach it.
+        if (getParent() instanceof View) {
+            ((View) getParent()).invalidate();
+        }
+    }
+
+    /**
+     * Returns the width of the text's bounds. The value is cached until the text or its size changes.
+     */
     public float getTextMeasureWidth() {
-        Rect bounds = new Rect();
-        getPaint().getTextBounds(getText().toString(), 0, getText().toString().length(), bounds);
-        return bounds.width();
+        if (mTextMeasureWidth < 0) {
+            String text = getText().toString();
+            getPaint().getTextBounds(text, 0, text.length(), mTextBounds);
+            mTextMeasureWidth = mTextBounds.width();
+        }
+        return mTextMeasureWidth;
+    }
+
+    /**
+     * Measures the view on its own and returns the diameter of its bubble, e.g. to hand the sizes
+     * of bubbles to a {@link com.jaredlam.bubbleview.simulation.BubbleSolver} before they are shown.
+     */
+    public int measureBubbleSize() {
+        int unspecified = MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+        measure(unspecified, unspecified);
+        return getMeasuredWidth();
     }
 
     public void setCircleColor(int colorRes) {
         int color = getResources().getColor(colorRes);
         mPaint.setColor(color);
+        invalidate();
+        invalidateCache();
     }
 
+    /**
+     * Leaves touches to the {@link BubbleLayout}: in one, the view returns false without handling
+     * them, so they go on to the layout, which hit-tests, drags, flings and clicks the bubbles
+     * itself and calls the view's click listener on a tap. Elsewhere the view handles them as a
+     * text view.
+     */
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        int action = event.getActionMasked();
-        int index = event.getActionIndex();
-        int pointerId = event.getPointerId(index);
-
-        int rawX = (int) event.getRawX();
-        int rawY = (int) event.getRawY();
-
-        int[] location = new int[2];
-        getLocationOnScreen(location);
-        Rect rect = new Rect(location[0], location[1], location[0] + getWidth(), location[1] + getHeight());
-
-        switch (action) {
-            case MotionEvent.ACTION_DOWN:
-                mLastX = rawX;
-                mLastY = rawY;
-                if (rect.contains(mLastX, mLastY)) {
-                    mIsMoving = true;
-                }
-
-                if (mVelocityTracker == null) {
-                    mVelocityTracker = VelocityTracker.obtain();
-                } else {
-                    mVelocityTracker.clear();
-                }
-                mVelocityTracker.addMovement(event);
-
-                break;
-            case MotionEvent.ACTION_MOVE:
-                mVelocityTracker.addMovement(event);
-                mVelocityTracker.computeCurrentVelocity(10);
-                if (mIsMoving) {
-                    int deltaX = rawX - mLastX;
-                    int deltaY = rawY - mLastY;
-                    if (Math.abs(deltaX) > mViewConfiguration.getScaledTouchSlop()
-                            || Math.abs(deltaY) > mViewConfiguration.getScaledTouchSlop()) {
-                        if (mMoveListener != null) {
-                            int centerX = getLeft() + getWidth() / 2;
-                            int centerY = getTop() + getHeight() / 2;
-                            float velocityX = mVelocityTracker.getXVelocity(pointerId);
-                            float velocityY = mVelocityTracker.getYVelocity(pointerId);
-                            double velocity = Math.sqrt(Math.pow(velocityX, 2) + Math.pow(velocityY, 2));
-                            mMoveListener.onMove(mBubbleInfo, centerX, centerY, deltaX, deltaY, velocity);
-                        }
-                        mLastX = rawX;
-                        mLastY = rawY;
-                    }
-                }
-                break;
-            case MotionEvent.ACTION_UP:
-                mIsMoving = false;
-                break;
-            case MotionEvent.ACTION_CANCEL:
-                mIsMoving = false;
-                mVelocityTracker.recycle();
-                break;
+        if (getParent() instanceof BubbleLayout) {
+            return false;
         }
-        return true;
+        return super.onTouchEvent(event);
     }
 
+    /**
+     * Sets a listener that the {@link BubbleLayout} tells whenever a finger drags this bubble.
+     *
+     * @deprecated The layout drags and flings bubbles itself; read a bubble's motion from its
+     * {@link BubbleInfo} instead.
+     */
+    @Deprecated
     public void setMoveListener(MoveListener moveListener) {
         this.mMoveListener = moveListener;
     }
 
+    @Deprecated
+    MoveListener getMoveListener() {
+        return mMoveListener;
+    }
+
     public void setBubbleInfo(BubbleInfo bubbleInfo) {
         this.mBubbleInfo = bubbleInfo;
     }
 
+    public BubbleInfo getBubbleInfo() {
+        return mBubbleInfo;
+    }
+
+    /**
+     * Puts the bubble in a group for forces that act per group, such as
+     * {@link com.jaredlam.bubbleview.simulation.GroupAttraction}. Takes effect when the view is
+     * added to a {@link BubbleLayout}.
+     */
+    public void setBubbleGroup(int group) {
+        mBubbleGroup = group;
+    }
+
+    public int getBubbleGroup() {
+        return mBubbleGroup;
+    }
+
+    void setBubbleId(int bubbleId) {
+        this.mBubbleId = bubbleId;
+    }
+
+    int getBubbleId() {
+        return mBubbleId;
+    }
+
+    /**
+     * Sets the diameter a {@link BubbleLayout} animates the bubble to, or 0 for its measured size.
+     */
+    void setBubbleSize(float size) {
+        mBubbleSize = size;
+    }
+
+    float getBubbleSize() {
+        return mBubbleSize;
+    }
+
+    /**
+     * @deprecated The layout drags and flings bubbles itself; read a bubble's motion from its
+     * {@link BubbleInfo} instead.
+     */
+    @Deprecated
     public interface MoveListener {
+        /**
+         * @param velocity the finger's speed in pixels per second
+         */
         void onMove(BubbleInfo bubbleInfo, int centerX, int centerY, int deltaX, int deltaY, double velocity);
     }
 }
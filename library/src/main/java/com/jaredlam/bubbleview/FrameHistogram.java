@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview;
+
+import java.util.Arrays;
+
+/**
+ * Rolling histogram of frame durations over the last {@link #WINDOW_SIZE} samples. Samples go into
+ * fixed buckets of {@link #BUCKET_NANOS}, so recording one is constant time and never allocates;
+ * percentiles are resolved to the upper edge of their bucket. Durations past the last bucket are
+ * reported as {@link #MAX_NANOS}.
+ */
+public class FrameHistogram {
+
+    public static final int WINDOW_SIZE = 240;
+    public static final long BUCKET_NANOS = 250L * 1000;
+    public static final long MAX_NANOS = 100L * 1000 * 1000;
+
+    private static final int BUCKET_COUNT = (int) (MAX_NANOS / BUCKET_NANOS) + 1;
+
+    private final int[] mCounts = new int[BUCKET_COUNT];
+    private final short[] mWindow = new short[WINDOW_SIZE];
+    private int mNext;
+    private int mSize;
+
+    void record(long nanos) {
+        int bucket = (int) Math.min(Math.max(nanos, 0) / BUCKET_NANOS, BUCKET_COUNT - 1);
+        if (mSize == WINDOW_SIZE) {
+            mCounts[mWindow[mNext]]--;
+        } else {
+            mSize++;
+        }
+        mWindow[mNext] = (short) bucket;
+        mCounts[bucket]++;
+        mNext = (mNext + 1) % WINDOW_SIZE;
+    }
+
+    void clear() {
+        Arrays.fill(mCounts, 0);
+        mNext = 0;
+        mSize = 0;
+    }
+
+    public int getSampleCount() {
+        return mSize;
+    }
+
+    /**
+     * Returns the duration in nanoseconds that {@code fraction} (0 to 1) of the samples in the
+     * window do not exceed, or 0 when there are none.
+     */
+    public long getPercentileNanos(float fraction) {
+        if (mSize == 0) {
+            return 0;
+        }
+        int rank = Math.max(1, (int) Math.ceil(fraction * mSize));
+        int seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT - 1; bucket++) {
+            seen += mCounts[bucket];
+            if (seen >= rank) {
+                return (bucket + 1) * BUCKET_NANOS;
+            }
+        }
+        return MAX_NANOS;
+    }
+
+    public long getP50Nanos() {
+        return getPercentileNanos(0.5f);
+    }
+
+    public long getP95Nanos() {
+        return getPercentileNanos(0.95f);
+    }
+
+    public long getP99Nanos() {
+        return getPercentileNanos(0.99f);
+    }
+}
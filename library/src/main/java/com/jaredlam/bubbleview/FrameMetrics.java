@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview;
+
+/**
+ * What a {@link BubbleLayout} did in its latest animation frame, plus rolling histograms over the
+ * recent frames. The layout reuses one instance and updates it before every callback, so read it
+ * inside {@link BubbleLayout.FrameMetricsListener#onFrame(FrameMetrics)} instead of keeping it.
+ */
+public class FrameMetrics {
+
+    private long mStepNanos;
+    private long mLayoutNanos;
+    private long mDrawNanos;
+    private long mFrameIntervalNanos;
+    private int mCollisionCount;
+    private int mBounceCount;
+    private int mAwakeCount;
+    private int mSleepingCount;
+    private int mLateFrameCount;
+    private int mDroppedFrameCount;
+
+    private final FrameHistogram mStepHistogram = new FrameHistogram();
+    private final FrameHistogram mLayoutHistogram = new FrameHistogram();
+    private final FrameHistogram mDrawHistogram = new FrameHistogram();
+    private final FrameHistogram mFrameIntervalHistogram = new FrameHistogram();
+
+    void recordFrame(long stepNanos, long layoutNanos, long frameIntervalNanos, long expectedIntervalNanos,
+                     int collisionCount, int bounceCount, int awakeCount, int sleepingCount) {
+        mStepNanos = stepNanos;
+        mLayoutNanos = layoutNanos;
+        mFrameIntervalNanos = frameIntervalNanos;
+        mCollisionCount = collisionCount;
+        mBounceCount = bounceCount;
+        mAwakeCount = awakeCount;
+        mSleepingCount = sleepingCount;
+        mStepHistogram.record(stepNanos);
+        mLayoutHistogram.record(layoutNanos);
+        mFrameIntervalHistogram.record(frameIntervalNanos);
+        // Half a frame of slack absorbs vsync jitter; anything later missed at least one frame.
+        if (frameIntervalNanos > expectedIntervalNanos * 3 / 2) {
+            mLateFrameCount++;
+            mDroppedFrameCount += (int) ((frameIntervalNanos + expectedIntervalNanos / 2) / expectedIntervalNanos) - 1;
+        }
+    }
+
+    void recordDraw(long drawNanos) {
+        mDrawNanos = drawNanos;
+        mDrawHistogram.record(drawNanos);
+    }
+
+    void reset() {
+        mStepNanos = 0;
+        mLayoutNanos = 0;
+        mDrawNanos = 0;
+        mFrameIntervalNanos = 0;
+        mCollisionCount = 0;
+        mBounceCount = 0;
+        mAwakeCount = 0;
+        mSleepingCount = 0;
+        mLateFrameCount = 0;
+        mDroppedFrameCount = 0;
+        mStepHistogram.clear();
+        mLayoutHistogram.clear();
+        mDrawHistogram.clear();
+        mFrameIntervalHistogram.clear();
+    }
+
+    /**
+     * Returns the time the latest frame spent in the physics step.
+     */
+    public long getStepNanos() {
+        return mStepNanos;
+    }
+
+    /**
+     * Returns the time the latest frame spent moving, binding or invalidating bubbles after the step.
+     */
+    public long getLayoutNanos() {
+        return mLayoutNanos;
+    }
+
+    /**
+     * Returns the time the latest draw of the layout took. Drawing happens after the frame
+     * callback, so this is the draw of the previous frame.
+     */
+    public long getDrawNanos() {
+        return mDrawNanos;
+    }
+
+    /**
+     * Returns the time since the previous frame.
+     */
+    public long getFrameIntervalNanos() {
+        return mFrameIntervalNanos;
+    }
+
+    /**
+     * Returns the number of overlapping bubble pairs in the latest frame.
+     */
+    public int getCollisionCount() {
+        return mCollisionCount;
+    }
+
+    /**
+     * Returns the number of bubbles turned back from the bounds in the latest frame.
+     */
+    public int getBounceCount() {
+        return mBounceCount;
+    }
+
+    public int getAwakeCount() {
+        return mAwakeCount;
+    }
+
+    public int getSleepingCount() {
+        return mSleepingCount;
+    }
+
+    /**
+     * Returns the number of frames that arrived more than half a display frame late since the
+     * listener was set.
+     */
+    public int getLateFrameCount() {
+        return mLateFrameCount;
+    }
+
+    /**
+     * Returns the number of display frames skipped since the listener was set.
+     */
+    public int getDroppedFrameCount() {
+        return mDroppedFrameCount;
+    }
+
+    public FrameHistogram getStepHistogram() {
+        return mStepHistogram;
+    }
+
+    public FrameHistogram getLayoutHistogram() {
+        return mLayoutHistogram;
+    }
+
+    public FrameHistogram getDrawHistogram() {
+        return mDrawHistogram;
+    }
+
+    public FrameHistogram getFrameIntervalHistogram() {
+        return mFrameIntervalHistogram;
+    }
+}
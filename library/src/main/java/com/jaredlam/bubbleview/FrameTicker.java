@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * Delivers one callback per display frame on the main thread. Uses {@link Choreographer} where it
+ * is available so frames line up with vsync, and falls back to a main thread {@link Handler} at
+ * roughly 60 fps on older platforms. Neither needs a background thread.
+ */
+abstract class FrameTicker {
+
+    interface Callback {
+        void onFrame(long frameTimeNanos);
+    }
+
+    static FrameTicker create(Callback callback) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return new ChoreographerTicker(callback);
+        }
+        return new HandlerTicker(callback);
+    }
+
+    protected final Callback mCallback;
+
+    FrameTicker(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Requests a single callback for the next frame.
+     */
+    abstract void postFrame();
+
+    abstract void cancel();
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class ChoreographerTicker extends FrameTicker implements Choreographer.FrameCallback {
+
+        private final Choreographer mChoreographer = Choreographer.getInstance();
+
+        ChoreographerTicker(Callback callback) {
+            super(callback);
+        }
+
+        @Override
+        void postFrame() {
+            mChoreographer.removeFrameCallback(this);
+            mChoreographer.postFrameCallback(this);
+        }
+
+        @Override
+        void cancel() {
+            mChoreographer.removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mCallback.onFrame(frameTimeNanos);
+        }
+    }
+
+    private static class HandlerTicker extends FrameTicker implements Runnable {
+
+        private static final long FRAME_DELAY_MILLIS = 16;
+
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        HandlerTicker(Callback callback) {
+            super(callback);
+        }
+
+        @Override
+        void postFrame() {
+            mHandler.removeCallbacks(this);
+            mHandler.postDelayed(this, FRAME_DELAY_MILLIS);
+        }
+
+        @Override
+        void cancel() {
+            mHandler.removeCallbacks(this);
+        }
+
+        @Override
+        public void run() {
+            mCallback.onFrame(System.nanoTime());
+        }
+    }
+}
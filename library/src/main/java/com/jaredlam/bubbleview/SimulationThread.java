@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview;
+
+import com.jaredlam.bubbleview.simulation.BubbleSimulation;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Steps a {@link BubbleSimulation} on a worker thread. Every step publishes a {@link Snapshot} of
+ * the bubble centers through a triple buffer, which the main thread picks up without locking.
+ * Touch input is queued and applied by the worker before its next step.
+ * <p/>
+ * The worker holds the simulation's monitor while it steps, so the main thread must synchronize on
+ * the simulation for anything else it changes or reads beyond the snapshot.
+ */
+class SimulationThread extends Thread {
+
+    /**
+     * Bubble centers, radii, placement, resize state and counters after one step, indexed by
+     * bubble id.
+     */
+    static class Snapshot {
+        private float[] mX = new float[0];
+        private float[] mY = new float[0];
+        private float[] mRadius = new float[0];
+        private boolean[] mPlaced = new boolean[0];
+        private boolean[] mResizing = new boolean[0];
+        private int[] mStamp = new int[0];
+        private int mSequence;
+        private int mVersion;
+        private boolean mFresh;
+
+        boolean mMoving;
+        long mAppliedInput;
+        long mStepNanos;
+        int mCollisionCount;
+        int mBounceCount;
+        int mAwakeCount;
+        int mSleepingCount;
+
+        boolean contains(int id) {
+            return id >= 0 && id < mStamp.length && mStamp[id] == mSequence;
+        }
+
+        float getX(int id) {
+            return mX[id];
+        }
+
+        float getY(int id) {
+            return mY[id];
+        }
+
+        float getRadius(int id) {
+            return mRadius[id];
+        }
+
+        boolean isPlaced(int id) {
+            return mPlaced[id];
+        }
+
+        boolean isResizing(int id) {
+            return mResizing[id];
+        }
+
+        private void copyFrom(BubbleSimulation simulation, int sequence, int version) {
+            int count = simulation.getBubbleCount();
+            int idLimit = 0;
+            for (int i = 0; i < count; i++) {
+                idLimit = Math.max(idLimit, simulation.getId(i) + 1);
+            }
+            if (mStamp.length < idLimit) {
+                int capacity = Math.max(idLimit, mStamp.length * 2);
+                mX = Arrays.copyOf(mX, capacity);
+                mY = Arrays.copyOf(mY, capacity);
+                mRadius = Arrays.copyOf(mRadius, capacity);
+                mPlaced = Arrays.copyOf(mPlaced, capacity);
+                mResizing = Arrays.copyOf(mResizing, capacity);
+                mStamp = Arrays.copyOf(mStamp, capacity);
+            }
+            mSequence = sequence;
+            mVersion = version;
+            for (int i = 0; i < count; i++) {
+                int id = simulation.getId(i);
+                mX[id] = simulation.getX(i);
+                mY[id] = simulation.getY(i);
+                mRadius[id] = simulation.getRadius(i);
+                mPlaced[id] = simulation.isPlaced(i);
+                mResizing[id] = simulation.isResizing(i);
+                mStamp[id] = sequence;
+            }
+            mMoving = simulation.isMoving();
+            mCollisionCount = simulation.getCollisionCount();
+            mBounceCount = simulation.getBounceCount();
+            mAwakeCount = simulation.getAwakeCount();
+            mSleepingCount = simulation.getSleepingCount();
+        }
+    }
+
+    private final BubbleSimulation mSimulation;
+
+    // Triple buffer: the worker fills mBack, swaps it into mReady, and the main thread swaps a
+    // fresh mReady for its mFront. Each side only ever touches its own buffer.
+    private final AtomicReference<Snapshot> mReady = new AtomicReference<>(new Snapshot());
+    private Snapshot mBack = new Snapshot();
+    private Snapshot mFront = new Snapshot();
+    private int mSequence;
+
+    private final Object mLock = new Object();
+    private long mPendingStepNanos;
+    private boolean mPublishRequested;
+    private boolean mQuit;
+
+    // Bumped by the main thread whenever it changes the simulation, so snapshots taken before that
+    // are no longer handed out.
+    private volatile int mVersion;
+
+    // Queued touch input, guarded by mLock.
+    private final TouchInput mInput = new TouchInput();
+    private long mQueuedInput;
+
+    SimulationThread(BubbleSimulation simulation) {
+        super("BubbleSimulation");
+        mSimulation = simulation;
+    }
+
+    /**
+     * Asks the worker to advance the simulation by {@code dtNanos}. Time requested while the
+     * worker is still busy adds up into its next step.
+     */
+    void requestStep(long dtNanos) {
+        synchronized (mLock) {
+            mPendingStepNanos += dtNanos;
+            mLock.notify();
+        }
+    }
+
+    /**
+     * Tells the worker that the main thread changed the simulation, e.g. added or placed bubbles.
+     * Must be called while holding the simulation's monitor. Snapshots taken before are dropped,
+     * and the worker publishes a new one right away.
+     */
+    void onSimulationChanged() {
+        mVersion++;
+        synchronized (mLock) {
+            mPublishRequested = true;
+            mLock.notify();
+        }
+    }
+
+    /**
+     * Queues a frame's touch input, applied before the next step.
+     */
+    void queueInput(TouchInput input) {
+        synchronized (mLock) {
+            mInput.addAll(input);
+            mQueuedInput++;
+            mLock.notify();
+        }
+    }
+
+    /**
+     * Returns whether input was queued after the given snapshot was taken.
+     */
+    boolean hasPendingInput(Snapshot snapshot) {
+        synchronized (mLock) {
+            return mQueuedInput > (snapshot != null ? snapshot.mAppliedInput : 0);
+        }
+    }
+
+    /**
+     * Returns the newest published snapshot, or null if there is none yet that is newer than the
+     * last {@link #onSimulationChanged()}. Main thread only; the snapshot stays valid until the
+     * next call.
+     */
+    Snapshot acquireSnapshot() {
+        if (mReady.get().mFresh) {
+            mFront.mFresh = false;
+            mFront = mReady.getAndSet(mFront);
+        }
+        return mFront.mSequence > 0 && mFront.mVersion == mVersion ? mFront : null;
+    }
+
+    void quit() {
+        synchronized (mLock) {
+            mQuit = true;
+            mLock.notify();
+        }
+    }
+
+    @Override
+    public void run() {
+        TouchInput input = new TouchInput();
+        while (true) {
+            long stepNanos;
+            long appliedInput;
+            synchronized (mLock) {
+                while (!mQuit && mPendingStepNanos == 0 && mInput.isEmpty() && !mPublishRequested) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mQuit) {
+                    return;
+                }
+                stepNanos = mPendingStepNanos;
+                mPendingStepNanos = 0;
+                mPublishRequested = false;
+                input.clear();
+                input.addAll(mInput);
+                mInput.clear();
+                appliedInput = mQueuedInput;
+            }
+
+            long start = System.nanoTime();
+            synchronized (mSimulation) {
+                input.applyTo(mSimulation);
+                if (stepNanos > 0) {
+                    mSimulation.step(stepNanos);
+                }
+                mBack.copyFrom(mSimulation, ++mSequence, mVersion);
+            }
+            mBack.mStepNanos = System.nanoTime() - start;
+            mBack.mAppliedInput = appliedInput;
+            mBack.mFresh = true;
+            mBack = mReady.getAndSet(mBack);
+        }
+    }
+}
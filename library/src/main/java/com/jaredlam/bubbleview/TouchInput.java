@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview;
+
+import com.jaredlam.bubbleview.simulation.BubbleSimulation;
+
+import java.util.Arrays;
+
+/**
+ * Touch input for a {@link BubbleSimulation}, gathered over a frame and applied in one batch:
+ * holds that keep bubbles under fingers, releases that fling them and motions that set them off.
+ * Entries live in primitive arrays, so gathering input does not allocate once they have grown.
+ */
+class TouchInput {
+
+    private static final int HOLD = 0;
+    private static final int RELEASE = 1;
+    private static final int MOTION = 2;
+
+    // Entry k is mTypes[k] for the bubble with id mIds[k], with the arguments mA[k] and mB[k]: a
+    // held bubble's center, or a released or moved one's heading and speed.
+    private int mCount;
+    private int[] mTypes = new int[8];
+    private int[] mIds = new int[8];
+    private double[] mA = new double[8];
+    private float[] mB = new float[8];
+
+    /**
+     * Holds the bubble with the given id at the given center.
+     */
+    void addHold(int id, float x, float y) {
+        add(HOLD, id, x, y);
+    }
+
+    /**
+     * Lets go of a held bubble with a new heading and speed.
+     */
+    void addRelease(int id, double radians, float speed) {
+        add(RELEASE, id, radians, speed);
+    }
+
+    /**
+     * Gives a bubble that is not held a new heading and speed.
+     */
+    void addMotion(int id, double radians, float speed) {
+        add(MOTION, id, radians, speed);
+    }
+
+    void addAll(TouchInput input) {
+        for (int k = 0; k < input.mCount; k++) {
+            add(input.mTypes[k], input.mIds[k], input.mA[k], input.mB[k]);
+        }
+    }
+
+    boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    void clear() {
+        mCount = 0;
+    }
+
+    /**
+     * Applies every entry in order, skipping bubbles that are gone. The caller holds the
+     * simulation's monitor.
+     */
+    void applyTo(BubbleSimulation simulation) {
+        for (int k = 0; k < mCount; k++) {
+            int index = simulation.indexOf(mIds[k]);
+            if (index < 0) {
+                continue;
+            }
+            if (mTypes[k] == HOLD) {
+                if (!simulation.isHeld(index)) {
+                    simulation.setBubbleHeld(index, true);
+                }
+                simulation.setBubblePosition(index, (float) mA[k], mB[k]);
+            } else if (mTypes[k] == RELEASE) {
+                simulation.setBubbleHeld(index, false);
+                simulation.setBubbleMotion(index, mA[k], mB[k]);
+            } else if (!simulation.isHeld(index)) {
+                simulation.setBubbleMotion(index, mA[k], mB[k]);
+            }
+        }
+    }
+
+    private void add(int type, int id, double a, float b) {
+        if (mCount == mIds.length) {
+            int capacity = mCount * 2;
+            mTypes = Arrays.copyOf(mTypes, capacity);
+            mIds = Arrays.copyOf(mIds, capacity);
+            mA = Arrays.copyOf(mA, capacity);
+            mB = Arrays.copyOf(mB, capacity);
+        }
+        mTypes[mCount] = type;
+        mIds[mCount] = id;
+        mA[mCount] = a;
+        mB[mCount] = b;
+        mCount++;
+    }
+}
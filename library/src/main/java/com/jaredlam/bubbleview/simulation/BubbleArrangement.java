@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Bubble centers worked out ahead of time by a {@link BubbleSolver}, in the order the bubbles were
+ * given, for a container of a given size, with the radii they were worked out for. Arrangements can be written to a stream and read back,
+ * e.g. to compute them at build time and ship them as an asset.
+ */
+public class BubbleArrangement {
+
+    private static final int MAGIC = 0x42424152;
+    private static final int VERSION = 2;
+
+    private final float mWidth;
+    private final float mHeight;
+    private final float[] mX;
+    private final float[] mY;
+    private final float[] mRadius;
+    private final boolean mConverged;
+
+    public BubbleArrangement(float width, float height, float[] x, float[] y, float[] radii, boolean converged) {
+        if (x.length != y.length || x.length != radii.length) {
+            throw new IllegalArgumentException("Got " + x.length + " x, " + y.length + " y coordinates and "
+                    + radii.length + " radii");
+        }
+        mWidth = width;
+        mHeight = height;
+        mX = x;
+        mY = y;
+        mRadius = radii;
+        mConverged = converged;
+    }
+
+    public float getWidth() {
+        return mWidth;
+    }
+
+    public float getHeight() {
+        return mHeight;
+    }
+
+    public int getBubbleCount() {
+        return mX.length;
+    }
+
+    public float getX(int bubble) {
+        return mX[bubble];
+    }
+
+    public float getY(int bubble) {
+        return mY[bubble];
+    }
+
+    public float getRadius(int bubble) {
+        return mRadius[bubble];
+    }
+
+    /**
+     * Returns whether the solver settled every bubble, or stopped at its step limit first.
+     */
+    public boolean isConverged() {
+        return mConverged;
+    }
+
+    public void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeFloat(mWidth);
+        out.writeFloat(mHeight);
+        out.writeBoolean(mConverged);
+        out.writeInt(mX.length);
+        for (int i = 0; i < mX.length; i++) {
+            out.writeFloat(mX[i]);
+            out.writeFloat(mY[i]);
+            out.writeFloat(mRadius[i]);
+        }
+        out.flush();
+    }
+
+    public static BubbleArrangement readFrom(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a bubble arrangement");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported arrangement version " + version);
+        }
+        float width = in.readFloat();
+        float height = in.readFloat();
+        boolean converged = in.readBoolean();
+        int count = in.readInt();
+        float[] x = new float[count];
+        float[] y = new float[count];
+        float[] radii = new float[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = in.readFloat();
+            y[i] = in.readFloat();
+            radii[i] = in.readFloat();
+        }
+        return new BubbleArrangement(width, height, x, y, radii, converged);
+    }
+}
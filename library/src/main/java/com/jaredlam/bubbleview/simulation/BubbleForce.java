@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A force on the bubbles of a {@link BubbleSimulation}. It is evaluated once per step for every
+ * bubble together, reading the simulation's state and writing accelerations into flat arrays.
+ * A force whose parameters change calls {@link #notifyChanged()}, so that the simulation it acts
+ * in wakes its bubbles.
+ * <p/>
+ * A force may keep scratch buffers between calls to {@link #apply}, so one instance must act in
+ * one simulation at a time; add a {@link #copy()} to another simulation instead. Only the built-in
+ * forces can be recorded in a {@link SimulationTrace}.
+ */
+public abstract class BubbleForce {
+
+    // Built-in forces, by the number a trace writes them with.
+    static final int CENTER_GRAVITY = 1;
+    static final int LINEAR_DRAG = 2;
+    static final int GROUP_ATTRACTION = 3;
+    static final int MANY_BODY = 4;
+
+    /**
+     * Is told when the parameters of a force change.
+     */
+    public interface Observer {
+        void onForceChanged(BubbleForce force);
+    }
+
+    private final List<Observer> mObservers = new ArrayList<>();
+
+    /**
+     * Adds the acceleration this force gives every placed bubble, in pixels per second squared, to
+     * {@code ax} and {@code ay}, which are indexed like the simulation. Bubbles that do not move
+     * this step are skipped afterwards, so the force need not check for them.
+     */
+    public abstract void apply(BubbleSimulation simulation, float[] ax, float[] ay);
+
+    public void registerObserver(Observer observer) {
+        synchronized (mObservers) {
+            mObservers.add(observer);
+        }
+    }
+
+    public void unregisterObserver(Observer observer) {
+        synchronized (mObservers) {
+            mObservers.remove(observer);
+        }
+    }
+
+    /**
+     * Returns a force with the same parameters, its own scratch buffers and no observers, or null
+     * if the force cannot be copied, which is the default. A {@link BubbleSimulation} is copied,
+     * e.g. to replay a trace, only when each of its forces can be.
+     */
+    public BubbleForce copy() {
+        return null;
+    }
+
+    /**
+     * Returns the number a trace writes a built-in force with, or 0 for any other force, which
+     * cannot be recorded.
+     */
+    int getType() {
+        return 0;
+    }
+
+    /**
+     * Writes the parameters of a built-in force, which {@link #readForce(DataInput)} reads back.
+     */
+    void writeParameters(DataOutput out) throws IOException {
+    }
+
+    final void writeForce(DataOutput out) throws IOException {
+        if (getType() == 0) {
+            throw new IllegalStateException("Cannot record " + getClass().getName());
+        }
+        out.writeByte(getType());
+        writeParameters(out);
+    }
+
+    static BubbleForce readForce(DataInput in) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case CENTER_GRAVITY:
+                return CenterGravity.read(in);
+            case LINEAR_DRAG:
+                return new LinearDrag(in.readFloat());
+            case GROUP_ATTRACTION:
+                return GroupAttraction.read(in);
+            case MANY_BODY:
+                return ManyBodyForce.read(in);
+            default:
+                throw new IOException("Unknown force " + type);
+        }
+    }
+
+    /**
+     * Tells every observer that the force changed. Call it after changing a parameter.
+     */
+    protected void notifyChanged() {
+        // Observers lock their simulation, so they are called without holding mObservers.
+        Observer[] observers;
+        synchronized (mObservers) {
+            observers = mObservers.toArray(new Observer[mObservers.size()]);
+        }
+        for (Observer observer : observers) {
+            observer.onForceChanged(this);
+        }
+    }
+}
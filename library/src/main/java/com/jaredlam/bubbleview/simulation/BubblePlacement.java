@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import java.util.Arrays;
+
+/**
+ * Initial placement of the bubbles of a {@link BubbleSimulation}. Kept apart from the layout so it
+ * runs, and can be measured, without Android.
+ * <p/>
+ * Bubbles are packed largest first with a front chain, the way d3's packSiblings does: each one is
+ * put against two neighbouring bubbles on the outline of the pack, next to the pair closest to the
+ * center, and moved along the outline until it overlaps nothing.
+ * <p/>
+ * d3 walks the whole outline twice for every bubble, to find the closest pair and what the bubble
+ * overlaps, which takes about n times the outline's length. Here the pairs wait in a heap by their
+ * distance from the center, and the outline's bubbles sit in a hash of cells as wide as the
+ * largest bubble, so a bubble that overlaps nothing is placed in logarithmic time. Only a bubble
+ * that does overlap walks the outline, as in d3, so the pack is the same up to ties between pairs
+ * equally close to the center.
+ */
+public class BubblePlacement {
+
+    private static final double EPSILON = 1e-6;
+
+    private double mRadiansPiece = 2 * Math.PI / 6;
+    private double mStartRadians;
+    private double mCurrentRadians;
+    private float mPadding;
+
+    // Packing state, indexed by the position of a bubble in size order.
+    private long[] mSortKeys = new long[0];
+    private int[] mPackIndex = new int[0];
+    private double[] mPackX = new double[0];
+    private double[] mPackY = new double[0];
+    private double[] mPackRadius = new double[0];
+    private int[] mNext = new int[0];
+    private int[] mPrevious = new int[0];
+    private boolean[] mOnChain = new boolean[0];
+
+    // Pairs of the front chain by the distance from the origin of the point where they touch; a
+    // pair is stale once its first circle left the chain or got another neighbour.
+    private int mHeapSize;
+    private double[] mHeapScore = new double[0];
+    private int[] mHeapFirst = new int[0];
+    private int[] mHeapSecond = new int[0];
+
+    // Packed circles by cell, an open addressing hash from the cell to the first circle in it; the
+    // others in the cell follow through mCellNext. Circles stay after they leave the chain.
+    private double mCellSize;
+    private long[] mCellKeys = new long[0];
+    private int[] mCellFirst = new int[0];
+    private int[] mCellNext = new int[0];
+
+    /**
+     * Sets the turn between bubbles that are added around an already placed pack.
+     */
+    public void setRadiansPiece(double radiansPiece) {
+        mRadiansPiece = radiansPiece;
+    }
+
+    /**
+     * Sets the direction, in radians, the pack is turned to, and the first direction bubbles added
+     * later go to.
+     */
+    public void setStartRadians(double startRadians) {
+        mStartRadians = startRadians;
+    }
+
+    public void setPadding(float padding) {
+        mPadding = padding;
+    }
+
+    /**
+     * Packs the given bubbles around the center, the largest in the middle, with the padding
+     * between neighbours. When some of them are already placed and {@code replaceAll} is unset
+     * they keep their position, and the others are put just outside them, each one turned a
+     * further radians piece from the last.
+     *
+     * @param indices simulation indices; negative entries are skipped
+     */
+    public void place(BubbleSimulation simulation, int[] indices, int count,
+                      float centerX, float centerY, boolean replaceAll) {
+        boolean anyPlaced = false;
+        if (!replaceAll) {
+            for (int i = 0; i < count && !anyPlaced; i++) {
+                anyPlaced = indices[i] >= 0 && simulation.isPlaced(indices[i]);
+            }
+        }
+        if (anyPlaced) {
+            placeAround(simulation, indices, count, centerX, centerY);
+        } else {
+            pack(simulation, indices, count, centerX, centerY);
+        }
+    }
+
+    private void placeAround(BubbleSimulation simulation, int[] indices, int count,
+                             float centerX, float centerY) {
+        float extent = 0;
+        for (int i = 0; i < count; i++) {
+            int index = indices[i];
+            if (index >= 0 && simulation.isPlaced(index)) {
+                float dx = simulation.getX(index) - centerX;
+                float dy = simulation.getY(index) - centerY;
+                extent = Math.max(extent, (float) Math.sqrt(dx * dx + dy * dy) + simulation.getRadius(index));
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int index = indices[i];
+            if (index < 0 || simulation.isPlaced(index)) {
+                continue;
+            }
+            mCurrentRadians += mRadiansPiece;
+            float distance = extent + mPadding + simulation.getRadius(index);
+            simulation.setBubblePosition(index,
+                    centerX + distance * (float) Math.cos(mCurrentRadians),
+                    centerY + distance * (float) Math.sin(mCurrentRadians));
+            // Push the next one further out so the added bubbles do not land on each other.
+            extent = distance + simulation.getRadius(index);
+        }
+    }
+
+    private void pack(BubbleSimulation simulation, int[] indices, int count,
+                      float centerX, float centerY) {
+        int n = sortBySize(simulation, indices, count);
+        if (n == 0) {
+            return;
+        }
+        float halfPadding = mPadding / 2;
+        for (int k = 0; k < n; k++) {
+            mPackRadius[k] = simulation.getRadius(mPackIndex[k]) + halfPadding;
+        }
+        packFrontChain(n);
+
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int k = 0; k < n; k++) {
+            minX = Math.min(minX, mPackX[k] - mPackRadius[k]);
+            minY = Math.min(minY, mPackY[k] - mPackRadius[k]);
+            maxX = Math.max(maxX, mPackX[k] + mPackRadius[k]);
+            maxY = Math.max(maxY, mPackY[k] + mPackRadius[k]);
+        }
+        double middleX = (minX + maxX) / 2;
+        double middleY = (minY + maxY) / 2;
+        double cos = Math.cos(mStartRadians);
+        double sin = Math.sin(mStartRadians);
+        for (int k = 0; k < n; k++) {
+            double x = mPackX[k] - middleX;
+            double y = mPackY[k] - middleY;
+            simulation.setBubblePosition(mPackIndex[k],
+                    centerX + (float) (x * cos - y * sin), centerY + (float) (x * sin + y * cos));
+        }
+        mCurrentRadians = mStartRadians;
+    }
+
+    /**
+     * Fills mPackIndex with the valid indices, largest radius first, ties in the given order, and
+     * returns how many there are.
+     */
+    private int sortBySize(BubbleSimulation simulation, int[] indices, int count) {
+        ensureCapacity(count);
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            int index = indices[i];
+            if (index < 0) {
+                continue;
+            }
+            // Radii are not negative, so their bits sort like the floats; the low half keeps ties
+            // in order once the keys are read back to front.
+            int radiusBits = Float.floatToIntBits(simulation.getRadius(index));
+            mSortKeys[n] = ((long) radiusBits << 32) | (count - 1 - i);
+            n++;
+        }
+        Arrays.sort(mSortKeys, 0, n);
+        for (int k = 0; k < n; k++) {
+            mPackIndex[k] = indices[count - 1 - (int) mSortKeys[n - 1 - k]];
+        }
+        return n;
+    }
+
+    /**
+     * Packs circles 0..n-1 of mPackRadius against each other, writing their centers to mPackX and
+     * mPackY with the first circle at the origin.
+     */
+    private void packFrontChain(int n) {
+        mPackX[0] = 0;
+        mPackY[0] = 0;
+        if (n == 1) {
+            return;
+        }
+        mPackX[0] = -mPackRadius[1];
+        mPackX[1] = mPackRadius[0];
+        mPackY[1] = 0;
+        if (n == 2) {
+            return;
+        }
+        placeTangent(1, 0, 2);
+
+        // The front chain is the outline of the pack, a ring of circles linked both ways.
+        int a = 0;
+        int b = 1;
+        mNext[0] = 1;
+        mPrevious[1] = 0;
+        mNext[1] = 2;
+        mPrevious[2] = 1;
+        mNext[2] = 0;
+        mPrevious[0] = 2;
+        // Circles are packed largest first, so no two in cells that are not adjacent can overlap.
+        mCellSize = Math.max(2 * mPackRadius[0], EPSILON);
+        Arrays.fill(mCellFirst, 0, mCellFirst.length, -1);
+        mHeapSize = 0;
+        for (int node = 0; node < 3; node++) {
+            mOnChain[node] = true;
+            addToCell(node);
+            pushPair(node);
+        }
+
+        int c = 3;
+        while (c < n) {
+            placeTangent(a, b, c);
+
+            // Look for a circle on the chain that c overlaps, walking out from a and b by turns,
+            // each time on the side covered less so far. The walk reaches every circle of the
+            // chain but a and b, so it is only needed when the cells say that one overlaps.
+            boolean overlapped = false;
+            if (overlapsChain(a, b, c)) {
+                int j = mNext[b];
+                int k = mPrevious[a];
+                double sj = mPackRadius[b];
+                double sk = mPackRadius[a];
+                do {
+                    if (sj <= sk) {
+                        if (intersects(j, c)) {
+                            removeFromChain(b, j);
+                            b = j;
+                            overlapped = true;
+                            break;
+                        }
+                        sj += mPackRadius[j];
+                        j = mNext[j];
+                    } else {
+                        if (intersects(k, c)) {
+                            removeFromChain(mNext[k], b);
+                            a = k;
+                            overlapped = true;
+                            break;
+                        }
+                        sk += mPackRadius[k];
+                        k = mPrevious[k];
+                    }
+                } while (j != mNext[k]);
+            }
+            if (overlapped) {
+                mNext[a] = b;
+                mPrevious[b] = a;
+                // The chain got shorter; place c again against the new pair.
+                continue;
+            }
+
+            mPrevious[c] = a;
+            mNext[c] = b;
+            mNext[a] = c;
+            mPrevious[b] = c;
+            mOnChain[c] = true;
+            addToCell(c);
+            pushPair(a);
+            pushPair(c);
+
+            // The next circle goes against the pair of the chain closest to the origin.
+            while (!mOnChain[mHeapFirst[0]] || mNext[mHeapFirst[0]] != mHeapSecond[0]) {
+                popPair();
+            }
+            a = mHeapFirst[0];
+            b = mNext[a];
+            c++;
+        }
+    }
+
+    /**
+     * Returns whether circle c overlaps a circle of the front chain other than a and b, which it
+     * was put against.
+     */
+    private boolean overlapsChain(int a, int b, int c) {
+        long column = cell(mPackX[c]);
+        long row = cell(mPackY[c]);
+        for (long y = row - 1; y <= row + 1; y++) {
+            for (long x = column - 1; x <= column + 1; x++) {
+                int slot = findCell(cellKey(x, y));
+                for (int node = mCellFirst[slot]; node >= 0; node = mCellNext[node]) {
+                    if (node != a && node != b && mOnChain[node] && intersects(node, c)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes the circles from {@code first} up to, not including, {@code end} off the chain.
+     */
+    private void removeFromChain(int first, int end) {
+        for (int node = first; node != end; node = mNext[node]) {
+            mOnChain[node] = false;
+        }
+    }
+
+    private long cell(double position) {
+        return (long) Math.floor(position / mCellSize);
+    }
+
+    private static long cellKey(long column, long row) {
+        return (column << 32) ^ (row & 0xffffffffL);
+    }
+
+    /**
+     * Returns the slot of the cell in the hash, or the empty slot it would go in.
+     */
+    private int findCell(long key) {
+        int mask = mCellKeys.length - 1;
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (mCellFirst[slot] >= 0 && mCellKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void addToCell(int node) {
+        long key = cellKey(cell(mPackX[node]), cell(mPackY[node]));
+        int slot = findCell(key);
+        mCellKeys[slot] = key;
+        mCellNext[node] = mCellFirst[slot];
+        mCellFirst[slot] = node;
+    }
+
+    /**
+     * Adds the pair of circle {@code first} and the next one on the chain to the heap.
+     */
+    private void pushPair(int first) {
+        double score = score(first);
+        int second = mNext[first];
+        int i = mHeapSize++;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (mHeapScore[parent] <= score) {
+                break;
+            }
+            setPair(i, mHeapScore[parent], mHeapFirst[parent], mHeapSecond[parent]);
+            i = parent;
+        }
+        setPair(i, score, first, second);
+    }
+
+    private void popPair() {
+        int last = --mHeapSize;
+        double score = mHeapScore[last];
+        int first = mHeapFirst[last];
+        int second = mHeapSecond[last];
+        int i = 0;
+        while (2 * i + 1 < last) {
+            int child = 2 * i + 1;
+            if (child + 1 < last && mHeapScore[child + 1] < mHeapScore[child]) {
+                child++;
+            }
+            if (mHeapScore[child] >= score) {
+                break;
+            }
+            setPair(i, mHeapScore[child], mHeapFirst[child], mHeapSecond[child]);
+            i = child;
+        }
+        setPair(i, score, first, second);
+    }
+
+    private void setPair(int i, double score, int first, int second) {
+        mHeapScore[i] = score;
+        mHeapFirst[i] = first;
+        mHeapSecond[i] = second;
+    }
+
+    /**
+     * Puts circle c against circles a and b.
+     */
+    private void placeTangent(int b, int a, int c) {
+        double dx = mPackX[b] - mPackX[a];
+        double dy = mPackY[b] - mPackY[a];
+        double distanceSquared = dx * dx + dy * dy;
+        if (distanceSquared == 0) {
+            mPackX[c] = mPackX[a] + mPackRadius[c];
+            mPackY[c] = mPackY[a];
+            return;
+        }
+        double toA = mPackRadius[a] + mPackRadius[c];
+        double toB = mPackRadius[b] + mPackRadius[c];
+        toA *= toA;
+        toB *= toB;
+        if (toA > toB) {
+            double x = (distanceSquared + toB - toA) / (2 * distanceSquared);
+            double y = Math.sqrt(Math.max(0, toB / distanceSquared - x * x));
+            mPackX[c] = mPackX[b] - x * dx - y * dy;
+            mPackY[c] = mPackY[b] - x * dy + y * dx;
+        } else {
+            double x = (distanceSquared + toA - toB) / (2 * distanceSquared);
+            double y = Math.sqrt(Math.max(0, toA / distanceSquared - x * x));
+            mPackX[c] = mPackX[a] + x * dx - y * dy;
+            mPackY[c] = mPackY[a] + x * dy + y * dx;
+        }
+    }
+
+    private boolean intersects(int a, int b) {
+        double radii = mPackRadius[a] + mPackRadius[b] - EPSILON;
+        double dx = mPackX[b] - mPackX[a];
+        double dy = mPackY[b] - mPackY[a];
+        return radii > 0 && radii * radii > dx * dx + dy * dy;
+    }
+
+    /**
+     * Squared distance from the origin of the point where circle a and the next one on the chain
+     * touch.
+     */
+    private double score(int a) {
+        int b = mNext[a];
+        double radii = mPackRadius[a] + mPackRadius[b];
+        double x = (mPackX[a] * mPackRadius[b] + mPackX[b] * mPackRadius[a]) / radii;
+        double y = (mPackY[a] * mPackRadius[b] + mPackY[b] * mPackRadius[a]) / radii;
+        return x * x + y * y;
+    }
+
+    private void ensureCapacity(int count) {
+        if (mSortKeys.length >= count) {
+            return;
+        }
+        mSortKeys = new long[count];
+        mPackIndex = new int[count];
+        mPackX = new double[count];
+        mPackY = new double[count];
+        mPackRadius = new double[count];
+        mNext = new int[count];
+        mPrevious = new int[count];
+        mOnChain = new boolean[count];
+        mHeapScore = new double[2 * count + 3];
+        mHeapFirst = new int[2 * count + 3];
+        mHeapSecond = new int[2 * count + 3];
+        // At least twice as many slots as circles, so the hash stays at most half full.
+        int cells = Integer.highestOneBit(count) * 4;
+        mCellKeys = new long[cells];
+        mCellFirst = new int[cells];
+        mCellNext = new int[count];
+    }
+}
@@ -0,0 +1,1836 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Platform independent bubble physics. Holds the state of every bubble in primitive arrays and
+ * advances it with {@link #step(long)}. Nothing in here depends on Android, so the step function
+ * can be profiled and tested on a plain JVM; {@code BubbleLayout} only drives it and copies the
+ * positions out.
+ * <p/>
+ * Every bubble has a stable id, returned by {@link #addBubble(float, double, float)}. The accessors
+ * take the bubble's current index into the state arrays, which changes when another bubble is
+ * removed; use {@link #indexOf(int)} to resolve an id.
+ */
+public class BubbleSimulation {
+
+    /**
+     * Longest time a single step integrates. A late frame after a stall is clamped to this instead
+     * of throwing bubbles far past each other and the bounds.
+     */
+    public static final long MAX_STEP_NANOS = 50L * 1000 * 1000;
+
+    public static final float DEFAULT_SLEEP_SPEED = 5f;
+    public static final int DEFAULT_SLEEP_FRAMES = 30;
+
+    public static final int NO_ID = -1;
+
+    /**
+     * Fully elastic: bubbles keep all their speed when they hit each other or the bounds.
+     */
+    public static final float DEFAULT_RESTITUTION = 1f;
+
+    /**
+     * Below this many bubbles a step stays on one thread even when parallel stepping is on; the
+     * hand-off to the workers would cost more than it saves.
+     */
+    public static final int DEFAULT_PARALLEL_MIN_BUBBLES = 2000;
+
+    private static final float NANOS_PER_SECOND = 1e9f;
+
+    /**
+     * Speed lost in pixels per second each time a flung bubble bounces, until it is back at its
+     * base speed.
+     */
+    private static final float BOUNCE_SLOW_DOWN = 100f;
+
+    /**
+     * Overlap in pixels left alone, so resting bubbles do not jitter against each other.
+     */
+    private static final float PENETRATION_SLOP = 0.5f;
+
+    /**
+     * How long bubbles get to make room after a radius animation or {@link #wakeUnsettled()}, in
+     * sleep periods.
+     */
+    private static final int RESIZE_SETTLE_SLEEP_PERIODS = 4;
+
+    /**
+     * Share of the remaining overlap pushed apart per step. Correcting only part of it keeps stacks
+     * of bubbles from overshooting.
+     */
+    private static final float POSITION_CORRECTION = 0.4f;
+
+    /**
+     * Collision passes per step while forces act, which press bubbles into piles.
+     */
+    private static final int FORCE_CONTACT_ITERATIONS = 8;
+
+    /**
+     * Most rebounds a swept bubble makes in one step; the rest of the step is dropped after that.
+     */
+    private static final int MAX_SWEEP_HITS = 4;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int mCount;
+    private int[] mIds = new int[INITIAL_CAPACITY];
+    private float[] mX = new float[INITIAL_CAPACITY];
+    private float[] mY = new float[INITIAL_CAPACITY];
+    private float[] mVx = new float[INITIAL_CAPACITY];
+    private float[] mVy = new float[INITIAL_CAPACITY];
+    private float[] mRadius = new float[INITIAL_CAPACITY];
+    // A bubble whose radius is animated changes it by mRadiusSpeed pixels per second until it is
+    // at mTargetRadius.
+    private float[] mTargetRadius = new float[INITIAL_CAPACITY];
+    private float[] mRadiusSpeed = new float[INITIAL_CAPACITY];
+    private float[] mSpeed = new float[INITIAL_CAPACITY];
+    private float[] mOldSpeed = new float[INITIAL_CAPACITY];
+    private boolean[] mPlaced = new boolean[INITIAL_CAPACITY];
+    private boolean[] mSleeping = new boolean[INITIAL_CAPACITY];
+    private boolean[] mHeld = new boolean[INITIAL_CAPACITY];
+    private int[] mGroup = new int[INITIAL_CAPACITY];
+    private int[] mSlowFrames = new int[INITIAL_CAPACITY];
+
+    private float mSleepSpeed = DEFAULT_SLEEP_SPEED;
+    private int mSleepFrames = DEFAULT_SLEEP_FRAMES;
+
+    private final SpatialGrid mGrid = new SpatialGrid();
+    // Positions the grid was built from, and how far any placed bubble has moved since; -1 once
+    // bubbles were added, removed, placed or resized, so that the grid has to be built again.
+    private float[] mGridX = new float[0];
+    private float[] mGridY = new float[0];
+    private float mGridSlack = -1;
+
+    // Maps a bubble id to its index, or to NO_ID once the bubble is removed.
+    private int[] mIndexOfId = new int[INITIAL_CAPACITY];
+    private int mNextId;
+
+    private float mLeft;
+    private float mTop;
+    private float mRight;
+    private float mBottom;
+
+    private float mRestitution = DEFAULT_RESTITUTION;
+    private float mDamping;
+    // Share of its speed a moving bubble keeps over this step's time, from mDamping.
+    private float mStepSpeedKept = 1;
+
+    // Bubbles outside the active region only move every mInactiveStepInterval steps, or never if 0.
+    private float mActiveLeft = -Float.MAX_VALUE;
+    private float mActiveTop = -Float.MAX_VALUE;
+    private float mActiveRight = Float.MAX_VALUE;
+    private float mActiveBottom = Float.MAX_VALUE;
+    private int mInactiveStepInterval;
+    private int mStepCount;
+
+    // What the last step did, for metrics.
+    private int mCollisionCount;
+    private int mBounceCount;
+    private int mAwakeCount;
+    private int mSleepingCount;
+
+    private SimulationTrace mTrace;
+
+    // Whether a radius animation may still be running, and for how many steps after the last one,
+    // or after unsettled bubbles were woken, every overlap still wakes the sleeping bubble it
+    // reaches and keeps the bubbles it pushes apart from falling asleep.
+    private boolean mResizing;
+    private int mResizeSettleSteps;
+
+    private final List<BubbleForce> mForces = new ArrayList<>();
+    // Set by the forces when their parameters change, possibly on another thread, and handled by
+    // the next step.
+    private volatile boolean mForcesChanged;
+    private final BubbleForce.Observer mForceObserver = new BubbleForce.Observer() {
+        @Override
+        public void onForceChanged(BubbleForce force) {
+            mForcesChanged = true;
+        }
+    };
+    // Acceleration of every bubble by the forces, and the length of the current step in seconds.
+    private float[] mAx = new float[0];
+    private float[] mAy = new float[0];
+    private float mStepDt;
+
+    private int mWorkerCount = 1;
+    private int mParallelMinBubbles = DEFAULT_PARALLEL_MIN_BUBBLES;
+    private WorkerPool mWorkerPool;
+    private float mParallelDt;
+    // Whether the contact pass being run is the step's first, which counts, wakes and corrects,
+    // and whether it is applied as part of advancing the bubbles.
+    private boolean mParallelFirstPass;
+    private boolean mParallelApplyOnAdvance;
+
+    // Contact of candidate pair p, worked out by the parallel step from the state at its start.
+    private boolean[] mContactTouching = new boolean[0];
+    private boolean[] mContactResting = new boolean[0];
+    private float[] mContactNormalX = new float[0];
+    private float[] mContactNormalY = new float[0];
+    private float[] mContactImpulse = new float[0];
+    private float[] mContactCorrection = new float[0];
+
+    // Candidate pairs of bubble i: mPairList[mPairStart[i]..mPairStart[i + 1]).
+    private int[] mPairStart = new int[INITIAL_CAPACITY + 1];
+    private int[] mPairList = new int[0];
+
+    // Per worker counters and bubbles left for the serial sweep pass.
+    private int[] mWorkerCollisions = new int[1];
+    private int[] mWorkerBounces = new int[1];
+    private int[] mWorkerAwake = new int[1];
+    private int[] mWorkerSleeping = new int[1];
+    private int[] mWorkerSweepCounts = new int[1];
+    private int[][] mWorkerSweeps = new int[1][0];
+    private float[][] mWorkerSweepDts = new float[1][0];
+
+    private final WorkerPool.Task mContactTask = new WorkerPool.Task() {
+        @Override
+        public void run(int start, int end, int worker) {
+            findContacts(start, end, worker);
+        }
+    };
+
+    private final WorkerPool.Task mApplyTask = new WorkerPool.Task() {
+        @Override
+        public void run(int start, int end, int worker) {
+            for (int i = start; i < end; i++) {
+                applyContacts(i, mParallelFirstPass);
+            }
+        }
+    };
+
+    private final WorkerPool.Task mAdvanceTask = new WorkerPool.Task() {
+        @Override
+        public void run(int start, int end, int worker) {
+            for (int i = start; i < end; i++) {
+                if (mParallelApplyOnAdvance) {
+                    applyContacts(i, true);
+                }
+                advanceBubble(i, mParallelDt, worker, false);
+            }
+        }
+    };
+
+    /**
+     * Adds an unplaced bubble and returns its id.
+     */
+    public int addBubble(float radius, double radians, float speed) {
+        if (mTrace != null) {
+            mTrace.recordAddBubble(radius, radians, speed);
+        }
+        ensureCapacity(mCount + 1);
+        int index = mCount++;
+        int id = mNextId++;
+        if (id >= mIndexOfId.length) {
+            mIndexOfId = Arrays.copyOf(mIndexOfId, Math.max(id + 1, mIndexOfId.length * 2));
+        }
+        mIndexOfId[id] = index;
+        mIds[index] = id;
+        mRadius[index] = radius;
+        mGridSlack = -1;
+        mTargetRadius[index] = radius;
+        mOldSpeed[index] = speed;
+        mPlaced[index] = false;
+        mSleeping[index] = false;
+        mHeld[index] = false;
+        mGroup[index] = 0;
+        mSlowFrames[index] = 0;
+        applyMotion(index, radians, speed);
+        return id;
+    }
+
+    /**
+     * Removes a bubble in constant time by moving the last bubble into its slot. Ids of the other
+     * bubbles stay valid.
+     */
+    public void removeBubble(int id) {
+        if (mTrace != null) {
+            mTrace.recordRemoveBubble(id);
+        }
+        int index = indexOf(id);
+        if (index < 0) {
+            return;
+        }
+        int last = --mCount;
+        mGridSlack = -1;
+        if (index != last) {
+            moveBubble(last, index);
+        }
+        mIndexOfId[id] = NO_ID;
+    }
+
+    public void clear() {
+        if (mTrace != null) {
+            mTrace.recordClear();
+        }
+        mCount = 0;
+        mNextId = 0;
+        mGridSlack = -1;
+    }
+
+    /**
+     * Returns the current index of the bubble with the given id, or {@link #NO_ID} if there is none.
+     */
+    public int indexOf(int id) {
+        return id >= 0 && id < mNextId ? mIndexOfId[id] : NO_ID;
+    }
+
+    public int getId(int index) {
+        return mIds[index];
+    }
+
+    public int getBubbleCount() {
+        return mCount;
+    }
+
+    public void setBounds(float left, float top, float right, float bottom) {
+        if (mTrace != null) {
+            mTrace.recordSetBounds(left, top, right, bottom);
+        }
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+    }
+
+    /**
+     * Limits full rate simulation to bubbles touching the given region. The others are stepped
+     * every {@code inactiveStepInterval} steps with the time of all of them, or frozen where they
+     * are if it is 0. Frozen bubbles still block the bubbles that move.
+     */
+    public void setActiveRegion(float left, float top, float right, float bottom, int inactiveStepInterval) {
+        if (mTrace != null) {
+            mTrace.recordSetActiveRegion(left, top, right, bottom, inactiveStepInterval);
+        }
+        mActiveLeft = left;
+        mActiveTop = top;
+        mActiveRight = right;
+        mActiveBottom = bottom;
+        mInactiveStepInterval = inactiveStepInterval;
+    }
+
+    public void clearActiveRegion() {
+        setActiveRegion(-Float.MAX_VALUE, -Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, 0);
+    }
+
+    public boolean isActive(int index) {
+        float radius = mRadius[index];
+        return mX[index] + radius >= mActiveLeft && mX[index] - radius <= mActiveRight
+                && mY[index] + radius >= mActiveTop && mY[index] - radius <= mActiveBottom;
+    }
+
+    /**
+     * A bubble whose speed stays below {@code speed} pixels per second for {@code frames}
+     * consecutive steps falls asleep: it stops and is skipped by the move and collision passes
+     * until something wakes it.
+     * <p/>
+     * Bubbles only get that slow if something takes their speed: a bubble cruises at the speed it
+     * was given, and a collision only ever brings it back down to that speed. With no
+     * {@link #setDamping(float) damping}, a restitution of 1 and no {@link LinearDrag} nothing
+     * does, and bubbles never sleep.
+     */
+    public void setSleepThreshold(float speed, int frames) {
+        if (mTrace != null) {
+            mTrace.recordSetSleepThreshold(speed, frames);
+        }
+        mSleepSpeed = speed;
+        mSleepFrames = frames;
+    }
+
+    /**
+     * Sets the share of the speed along the contact normal kept in a collision, from 0 (bubbles
+     * stop dead against each other and the bounds) to 1 (fully elastic).
+     */
+    public void setRestitution(float restitution) {
+        if (mTrace != null) {
+            mTrace.recordSetRestitution(restitution);
+        }
+        mRestitution = restitution;
+    }
+
+    /**
+     * Sets the share of its speed, per second, that every moving bubble loses, cruising speed
+     * included, so bubbles settle and fall asleep; e.g. 1 takes a bubble at 20000 pixels per
+     * second below the default sleep speed in about eight seconds. The default of 0 lets bubbles
+     * cruise forever.
+     */
+    public void setDamping(float perSecond) {
+        if (mTrace != null) {
+            mTrace.recordSetDamping(perSecond);
+        }
+        mDamping = perSecond;
+    }
+
+    public void setBubblePosition(int index, float x, float y) {
+        if (mTrace != null) {
+            mTrace.recordSetBubblePosition(index, x, y);
+        }
+        mX[index] = x;
+        mY[index] = y;
+        mPlaced[index] = true;
+        mGridSlack = -1;
+        wakeBubble(index);
+    }
+
+    /**
+     * Puts the bubble back the way it was, as read from the position, velocity and old speed
+     * getters and {@link #isSleeping(int)}, e.g. when a layout is restored.
+     */
+    public void setBubbleState(int index, float x, float y, float vx, float vy, float oldSpeed,
+                               boolean sleeping) {
+        if (mTrace != null) {
+            mTrace.recordSetBubbleState(index, x, y, vx, vy, oldSpeed, sleeping);
+        }
+        mX[index] = x;
+        mY[index] = y;
+        mPlaced[index] = true;
+        mGridSlack = -1;
+        mVx[index] = vx;
+        mVy[index] = vy;
+        updateSpeed(index);
+        mOldSpeed[index] = oldSpeed;
+        mSleeping[index] = sleeping;
+        mSlowFrames[index] = 0;
+    }
+
+    public void setBubbleRadius(int index, float radius) {
+        if (mTrace != null) {
+            mTrace.recordSetBubbleRadius(index, radius);
+        }
+        mRadius[index] = radius;
+        mTargetRadius[index] = radius;
+        mGridSlack = -1;
+    }
+
+    /**
+     * Changes the bubble's radius to {@code radius} at an even rate over {@code durationNanos} of
+     * steps, e.g. to grow a selected bubble. The bubble stays awake meanwhile, and the bubbles it
+     * grows into are woken and pushed aside while the rest keep sleeping. Setting the radius
+     * directly ends the animation.
+     */
+    public void animateBubbleRadius(int index, float radius, long durationNanos) {
+        if (mTrace != null) {
+            mTrace.recordAnimateBubbleRadius(index, radius, durationNanos);
+        }
+        mTargetRadius[index] = radius;
+        if (durationNanos <= 0) {
+            mRadius[index] = radius;
+            mGridSlack = -1;
+        } else {
+            mRadiusSpeed[index] = Math.abs(radius - mRadius[index]) * NANOS_PER_SECOND / durationNanos;
+            mResizing = true;
+        }
+        wakeBubble(index);
+    }
+
+    /**
+     * Returns whether an awake bubble still moves, or was pushed and has not yet fallen asleep.
+     */
+    private boolean isStirring(int index) {
+        return mSpeed[index] > 0 || (mSleepSpeed > 0 && mSlowFrames[index] < mSleepFrames);
+    }
+
+    /**
+     * Returns whether the bubble's radius is being animated.
+     */
+    public boolean isResizing(int index) {
+        return mRadius[index] != mTargetRadius[index];
+    }
+
+    public float getTargetRadius(int index) {
+        return mTargetRadius[index];
+    }
+
+    /**
+     * Sets the bubble's heading and its speed in pixels per second.
+     */
+    public void setBubbleMotion(int index, double radians, float speed) {
+        if (mTrace != null) {
+            mTrace.recordSetBubbleMotion(index, radians, speed);
+        }
+        applyMotion(index, radians, speed);
+    }
+
+    public void wake(int index) {
+        if (mTrace != null) {
+            mTrace.recordWake(index);
+        }
+        wakeBubble(index);
+    }
+
+    /**
+     * Wakes every bubble that overlaps another one or sticks out of the bounds, e.g. after bubbles
+     * were put back to sleep at positions worked out for other bubble sizes or bounds. A pair of
+     * sleeping bubbles is never pushed apart, so such overlaps would otherwise stay. For a few sleep
+     * periods, the woken bubbles do not fall asleep again while they still overlap.
+     */
+    public void wakeUnsettled() {
+        if (mTrace != null) {
+            mTrace.recordWakeUnsettled();
+        }
+        boolean woken = false;
+        for (int i = 0; i < mCount; i++) {
+            if (mPlaced[i] && isOutOfBounds(i)) {
+                wakeBubble(i);
+                woken = true;
+            }
+        }
+        buildGrid();
+        int pairCount = mGrid.findCandidatePairs();
+        int[] pairs = mGrid.getPairs();
+        for (int p = 0; p < pairCount; p++) {
+            int a = pairs[p * 2];
+            int b = pairs[p * 2 + 1];
+            float dx = mX[b] - mX[a];
+            float dy = mY[b] - mY[a];
+            if (mRadius[a] + mRadius[b] - (float) Math.sqrt(dx * dx + dy * dy) > PENETRATION_SLOP) {
+                wakeBubble(a);
+                wakeBubble(b);
+                woken = true;
+            }
+        }
+        if (woken) {
+            mResizeSettleSteps = Math.max(mResizeSettleSteps, mSleepFrames * RESIZE_SETTLE_SLEEP_PERIODS);
+        }
+    }
+
+    private boolean isOutOfBounds(int index) {
+        float radius = mRadius[index];
+        return mX[index] - radius < mLeft - PENETRATION_SLOP || mX[index] + radius > mRight + PENETRATION_SLOP
+                || mY[index] - radius < mTop - PENETRATION_SLOP || mY[index] + radius > mBottom + PENETRATION_SLOP;
+    }
+
+    /**
+     * Starts recording every change to the simulation, including each step's elapsed time, into a
+     * trace that begins with a copy of the current state. The trace can be replayed headlessly to
+     * reproduce the session frame for frame. Recording stops with {@link #stopRecording()} or when
+     * another recording starts.
+     *
+     * @throws IllegalStateException if a force other than the built-in ones has been added
+     */
+    public SimulationTrace startRecording() {
+        for (int f = 0; f < mForces.size(); f++) {
+            if (mForces.get(f).getType() == 0) {
+                throw new IllegalStateException("Cannot record " + mForces.get(f).getClass().getName());
+            }
+        }
+        mTrace = new SimulationTrace(copy());
+        return mTrace;
+    }
+
+    public void stopRecording() {
+        mTrace = null;
+    }
+
+    private void applyMotion(int index, double radians, float speed) {
+        mSpeed[index] = speed;
+        // StrictMath gives the same result on every VM, so a trace recorded on a device replays
+        // exactly on a desktop JVM.
+        mVx[index] = speed * (float) StrictMath.cos(radians);
+        mVy[index] = speed * (float) StrictMath.sin(radians);
+        wakeBubble(index);
+    }
+
+    private void wakeBubble(int index) {
+        mSleeping[index] = false;
+        mSlowFrames[index] = 0;
+    }
+
+    /**
+     * Holds the bubble in place, e.g. under a finger: it stops, steps no longer move it, and other
+     * bubbles bounce off it as if it were infinitely heavy. Moving it is left to
+     * {@link #setBubblePosition(int, float, float)}. Releasing it leaves it at rest until it is
+     * given a motion or hit.
+     */
+    public void setBubbleHeld(int index, boolean held) {
+        if (mTrace != null) {
+            mTrace.recordSetBubbleHeld(index, held);
+        }
+        mHeld[index] = held;
+        mVx[index] = 0;
+        mVy[index] = 0;
+        mSpeed[index] = 0;
+        wakeBubble(index);
+    }
+
+    public boolean isHeld(int index) {
+        return mHeld[index];
+    }
+
+    /**
+     * Puts the bubble in a group, e.g. its category, for forces that act per group such as
+     * {@link GroupAttraction}. Bubbles start in group 0.
+     */
+    public void setBubbleGroup(int index, int group) {
+        if (mTrace != null) {
+            mTrace.recordSetBubbleGroup(index, group);
+        }
+        mGroup[index] = group;
+        wakeBubble(index);
+    }
+
+    public int getGroup(int index) {
+        return mGroup[index];
+    }
+
+    /**
+     * Adds a force that from the next step on accelerates every awake bubble that is not held.
+     * Forces are evaluated in the order they were added, all bubbles at once, before collisions
+     * are resolved. Every bubble is woken, as its resting place may have changed. While forces
+     * act, contacts are solved several times per step, and bubbles that forces press into a pile
+     * fall asleep once they move no faster than the forces push them each step. When a force's
+     * parameters change, the next step wakes every bubble again.
+     * <p/>
+     * A force must not act in another simulation at the same time; see {@link BubbleForce}.
+     * Traces record the built-in forces and every change to them. Other forces cannot be added
+     * while recording.
+     *
+     * @throws IllegalStateException if recording and the force is not a built-in one
+     */
+    public void addForce(BubbleForce force) {
+        if (mTrace != null && force.getType() == 0) {
+            throw new IllegalStateException("Cannot record " + force.getClass().getName());
+        }
+        mForces.add(force);
+        force.registerObserver(mForceObserver);
+        if (mTrace != null) {
+            mTrace.recordSetForces(mForces, true);
+        }
+        wakeAll();
+    }
+
+    public void removeForce(BubbleForce force) {
+        if (mForces.remove(force)) {
+            force.unregisterObserver(mForceObserver);
+            if (mTrace != null) {
+                mTrace.recordSetForces(mForces, true);
+            }
+            wakeAll();
+        }
+    }
+
+    public void clearForces() {
+        if (!mForces.isEmpty()) {
+            for (int f = 0; f < mForces.size(); f++) {
+                mForces.get(f).unregisterObserver(mForceObserver);
+            }
+            mForces.clear();
+            if (mTrace != null) {
+                mTrace.recordSetForces(mForces, true);
+            }
+            wakeAll();
+        }
+    }
+
+    /**
+     * Replaces every force, for replaying a trace. With {@code wake} every bubble is woken at
+     * once, otherwise by the next step, as after a force's parameters changed.
+     */
+    void setForces(List<BubbleForce> forces, boolean wake) {
+        for (int f = 0; f < mForces.size(); f++) {
+            mForces.get(f).unregisterObserver(mForceObserver);
+        }
+        mForces.clear();
+        for (int f = 0; f < forces.size(); f++) {
+            mForces.add(forces.get(f));
+            forces.get(f).registerObserver(mForceObserver);
+        }
+        if (wake) {
+            wakeAll();
+        } else {
+            mForcesChanged = true;
+        }
+    }
+
+    /**
+     * Returns the forces in the order they act, as a list that cannot be modified.
+     */
+    public List<BubbleForce> getForces() {
+        return Collections.unmodifiableList(mForces);
+    }
+
+    private void wakeAll() {
+        for (int i = 0; i < mCount; i++) {
+            wakeBubble(i);
+        }
+    }
+
+    /**
+     * Returns the index of the placed bubble whose circle contains the point, the one with the
+     * nearest center when several do, or -1 if there is none.
+     */
+    public int findBubbleAt(float x, float y) {
+        // Reuse the grid of the last step: every bubble is within mGridSlack of the cell it was
+        // sorted into, so widening the query by that much still finds it. Build it again only when
+        // it no longer matches the bubbles, or they moved so far that the query would be wide.
+        if (mGridSlack < 0 || mGridSlack > mGrid.getCellSize()) {
+            buildGrid();
+        }
+        float slack = mGridSlack;
+        int candidates = mGrid.query(x - slack, y - slack, x + slack, y + slack);
+        int[] results = mGrid.getQueryResults();
+        int found = -1;
+        float nearest = Float.MAX_VALUE;
+        for (int c = 0; c < candidates; c++) {
+            int index = results[c];
+            float dx = mX[index] - x;
+            float dy = mY[index] - y;
+            float distanceSquared = dx * dx + dy * dy;
+            if (distanceSquared <= mRadius[index] * mRadius[index] && distanceSquared < nearest) {
+                found = index;
+                nearest = distanceSquared;
+            }
+        }
+        return found;
+    }
+
+    public boolean isSleeping(int index) {
+        return mSleeping[index];
+    }
+
+    /**
+     * Returns whether any placed bubble is held, or awake with a non-zero speed, or a force has
+     * changed since the last step, i.e. whether stepping could change anything.
+     */
+    public boolean isMoving() {
+        if (mForcesChanged) {
+            return true;
+        }
+        for (int i = 0; i < mCount; i++) {
+            if (!mPlaced[i]) {
+                continue;
+            }
+            if (mHeld[i] || mRadius[i] != mTargetRadius[i]
+                    || !mSleeping[i] && isStirring(i) && (mInactiveStepInterval > 0 || isActive(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isPlaced(int index) {
+        return mPlaced[index];
+    }
+
+    public float getX(int index) {
+        return mX[index];
+    }
+
+    public float getY(int index) {
+        return mY[index];
+    }
+
+    public float getVelocityX(int index) {
+        return mVx[index];
+    }
+
+    public float getVelocityY(int index) {
+        return mVy[index];
+    }
+
+    public float getRadius(int index) {
+        return mRadius[index];
+    }
+
+    public double getRadians(int index) {
+        return Math.atan2(mVy[index], mVx[index]);
+    }
+
+    public float getSpeed(int index) {
+        return mSpeed[index];
+    }
+
+    public float getOldSpeed(int index) {
+        return mOldSpeed[index];
+    }
+
+    /**
+     * Copies the bubble centers into the given arrays, which must hold at least
+     * {@link #getBubbleCount()} elements.
+     */
+    public void copyPositions(float[] outX, float[] outY) {
+        System.arraycopy(mX, 0, outX, 0, mCount);
+        System.arraycopy(mY, 0, outY, 0, mCount);
+    }
+
+    /**
+     * Advances the simulation by {@code dtNanos} of elapsed time, clamped to {@link #MAX_STEP_NANOS}.
+     * Sleeping bubbles are not moved, nor are bubbles outside the active region on the steps they
+     * skip. A step does not allocate.
+     */
+    public void step(long dtNanos) {
+        boolean forcesChanged = mForcesChanged;
+        if (forcesChanged) {
+            mForcesChanged = false;
+            if (mTrace != null) {
+                mTrace.recordSetForces(mForces, false);
+            }
+        }
+        if (mTrace != null) {
+            mTrace.recordStep(dtNanos);
+        }
+        float dt = Math.min(dtNanos, MAX_STEP_NANOS) / NANOS_PER_SECOND;
+        mStepDt = dt;
+        mStepCount++;
+        mStepSpeedKept = getSpeedKept(dt);
+        if (forcesChanged) {
+            wakeAll();
+        }
+        if (mResizing) {
+            animateRadii(dt);
+            mResizeSettleSteps = mSleepFrames * RESIZE_SETTLE_SLEEP_PERIODS;
+        } else if (mResizeSettleSteps > 0) {
+            mResizeSettleSteps--;
+        }
+        if (!mForces.isEmpty()) {
+            applyForces(dt);
+        }
+        if (mWorkerCount > 1 && mCount >= mParallelMinBubbles) {
+            stepParallel(dt);
+            measureGridSlack();
+            return;
+        }
+        clearWorkerCounters(1);
+        resolveCollisions();
+        for (int i = 0; i < mCount; i++) {
+            advanceBubble(i, dt, 0, true);
+        }
+        mBounceCount = mWorkerBounces[0];
+        mAwakeCount = mWorkerAwake[0];
+        mSleepingCount = mWorkerSleeping[0];
+        measureGridSlack();
+    }
+
+    private void buildGrid() {
+        mGrid.build(mX, mY, mRadius, mPlaced, mCount);
+        if (mGridX.length < mCount) {
+            mGridX = new float[mX.length];
+            mGridY = new float[mX.length];
+        }
+        System.arraycopy(mX, 0, mGridX, 0, mCount);
+        System.arraycopy(mY, 0, mGridY, 0, mCount);
+        mGridSlack = 0;
+    }
+
+    /**
+     * Records how far the bubbles moved since the grid was built this step, so that
+     * {@link #findBubbleAt(float, float)} can keep querying it.
+     */
+    private void measureGridSlack() {
+        float slack = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (mPlaced[i]) {
+                slack = Math.max(slack, Math.max(Math.abs(mX[i] - mGridX[i]), Math.abs(mY[i] - mGridY[i])));
+            }
+        }
+        mGridSlack = slack;
+    }
+
+    /**
+     * Moves every animated radius on by one step. Only the bubbles that now overlap a resized one
+     * are affected, through the collision pass.
+     */
+    private void animateRadii(float dt) {
+        mResizing = false;
+        for (int i = 0; i < mCount; i++) {
+            float radius = mRadius[i];
+            float target = mTargetRadius[i];
+            if (radius == target) {
+                continue;
+            }
+            float change = mRadiusSpeed[i] * dt;
+            if (Math.abs(target - radius) <= change) {
+                mRadius[i] = target;
+            } else {
+                mRadius[i] = target > radius ? radius + change : radius - change;
+                mResizing = true;
+            }
+            wakeBubble(i);
+        }
+    }
+
+    /**
+     * Sums the acceleration of every force and adds it to the velocity of each bubble that moves
+     * this step. Sleeping and held bubbles still pull and push the others.
+     */
+    private void applyForces(float dt) {
+        if (mAx.length < mCount) {
+            mAx = new float[mX.length];
+            mAy = new float[mX.length];
+        }
+        Arrays.fill(mAx, 0, mCount, 0);
+        Arrays.fill(mAy, 0, mCount, 0);
+        for (int f = 0; f < mForces.size(); f++) {
+            mForces.get(f).apply(this, mAx, mAy);
+        }
+        for (int i = 0; i < mCount; i++) {
+            if (!mPlaced[i] || mSleeping[i] || mHeld[i] || (mInactiveStepInterval <= 0 && !isActive(i))) {
+                continue;
+            }
+            mVx[i] += mAx[i] * dt;
+            mVy[i] += mAy[i] * dt;
+            updateSpeed(i);
+        }
+    }
+
+    /**
+     * Returns the deepest overlap, in pixels, between two placed bubbles or between a placed bubble
+     * and the outside of the bounds.
+     */
+    float getMaxOverlap() {
+        float maxOverlap = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (mPlaced[i]) {
+                float radius = mRadius[i];
+                maxOverlap = Math.max(maxOverlap, Math.max(mLeft - (mX[i] - radius), (mX[i] + radius) - mRight));
+                maxOverlap = Math.max(maxOverlap, Math.max(mTop - (mY[i] - radius), (mY[i] + radius) - mBottom));
+            }
+        }
+        buildGrid();
+        int pairCount = mGrid.findCandidatePairs();
+        int[] pairs = mGrid.getPairs();
+        for (int p = 0; p < pairCount; p++) {
+            int a = pairs[p * 2];
+            int b = pairs[p * 2 + 1];
+            float dx = mX[b] - mX[a];
+            float dy = mY[b] - mY[a];
+            float overlap = mRadius[a] + mRadius[b] - (float) Math.sqrt(dx * dx + dy * dy);
+            maxOverlap = Math.max(maxOverlap, overlap);
+        }
+        return maxOverlap;
+    }
+
+    /**
+     * Returns the horizontal center of the bounds.
+     */
+    float getBoundsCenterX() {
+        return (mLeft + mRight) / 2;
+    }
+
+    float getBoundsCenterY() {
+        return (mTop + mBottom) / 2;
+    }
+
+    /**
+     * Spreads steps of at least {@code minBubbleCount} bubbles over {@code workerCount} threads,
+     * the stepping thread included; 1 keeps every step on the stepping thread.
+     * <p/>
+     * A parallel step resolves collisions in two phases: every overlapping pair first works out
+     * its impulse from the state at the start of the step, then every bubble applies the sum of
+     * its impulses and moves. The result therefore does not depend on the number of threads, but
+     * differs slightly from a single threaded step, which applies each impulse right away.
+     */
+    public void setParallelism(int workerCount, int minBubbleCount) {
+        if (mTrace != null) {
+            mTrace.recordSetParallelism(workerCount, minBubbleCount);
+        }
+        workerCount = Math.max(workerCount, 1);
+        if (mWorkerPool != null && mWorkerPool.getWorkerCount() != workerCount) {
+            releaseWorkers();
+        }
+        mWorkerCount = workerCount;
+        mParallelMinBubbles = minBubbleCount;
+    }
+
+    /**
+     * Stops the worker threads of parallel stepping. They are started again by the next step that
+     * needs them.
+     */
+    public void releaseWorkers() {
+        if (mWorkerPool != null) {
+            mWorkerPool.shutdown();
+            mWorkerPool = null;
+        }
+    }
+
+    /**
+     * Returns the number of overlapping pairs the last step found.
+     */
+    public int getCollisionCount() {
+        return mCollisionCount;
+    }
+
+    /**
+     * Returns the number of bubbles the last step turned back from the bounds.
+     */
+    public int getBounceCount() {
+        return mBounceCount;
+    }
+
+    /**
+     * Returns the number of placed bubbles that were awake at the end of the last step, including
+     * inactive bubbles the step skipped.
+     */
+    public int getAwakeCount() {
+        return mAwakeCount;
+    }
+
+    public int getSleepingCount() {
+        return mSleepingCount;
+    }
+
+    /**
+     * Counts the steps a bubble has been slow and puts it to sleep after enough of them. Forces
+     * keep pressing a bubble that lies in a pile, and the contacts take back about what they add
+     * each step; a bubble no faster than that is held in place and counts as slow.
+     */
+    private void updateSleep(int index) {
+        float sleepSpeed = mSleepSpeed;
+        if (!mForces.isEmpty()) {
+            sleepSpeed += getForceSpeed(index);
+        }
+        if (mSpeed[index] >= sleepSpeed) {
+            mSlowFrames[index] = 0;
+        } else if (++mSlowFrames[index] >= mSleepFrames) {
+            mSleeping[index] = true;
+            mVx[index] = 0;
+            mVy[index] = 0;
+            mSpeed[index] = 0;
+        }
+    }
+
+    /**
+     * Collision pass: the grid yields candidate pairs, and every pair found overlapping trades an
+     * impulse along the line between the centers and is pushed apart by part of the overlap.
+     * Heavier bubbles, by area, give way less. While forces act, the impulses are traded a few
+     * more times so that piles settle.
+     */
+    void resolveCollisions() {
+        mCollisionCount = 0;
+        buildGrid();
+        int pairCount = mGrid.findCandidatePairs();
+        int[] pairs = mGrid.getPairs();
+        for (int p = 0; p < pairCount; p++) {
+            int a = pairs[p * 2];
+            int b = pairs[p * 2 + 1];
+            if (mSleeping[a] && mSleeping[b]) {
+                continue;
+            }
+            float dx = mX[b] - mX[a];
+            float dy = mY[b] - mY[a];
+            float radii = mRadius[a] + mRadius[b];
+            float distanceSquared = dx * dx + dy * dy;
+            if (distanceSquared > radii * radii) {
+                continue;
+            }
+            float distance = (float) Math.sqrt(distanceSquared);
+            float normalX = 1;
+            float normalY = 0;
+            if (distance > 0) {
+                normalX = dx / distance;
+                normalY = dy / distance;
+            }
+            float inverseMassA = getInverseMass(a);
+            float inverseMassB = getInverseMass(b);
+            boolean resting = isRestingContact(a, b, normalX, normalY, radii - distance);
+            if (resting) {
+                if (mSleeping[a]) {
+                    inverseMassA = 0;
+                } else {
+                    inverseMassB = 0;
+                }
+            }
+            float inverseMassSum = inverseMassA + inverseMassB;
+            if (inverseMassSum == 0) {
+                continue;
+            }
+            mCollisionCount++;
+            // Something awake ran into a sleeping bubble, so it has to take part again.
+            if (!resting) {
+                if (mSleeping[a]) {
+                    wakeBubble(a);
+                } else if (mSleeping[b]) {
+                    wakeBubble(b);
+                }
+            }
+            applyImpulse(a, b, normalX, normalY, inverseMassA, inverseMassB);
+
+            float correction = Math.max(radii - distance - PENETRATION_SLOP, 0) * POSITION_CORRECTION / inverseMassSum;
+            mX[a] -= correction * inverseMassA * normalX;
+            mY[a] -= correction * inverseMassA * normalY;
+            mX[b] += correction * inverseMassB * normalX;
+            mY[b] += correction * inverseMassB * normalY;
+            // Bubbles still being pushed aside, e.g. by a resized one, must not fall asleep overlapping.
+            if (correction > 0 && mResizeSettleSteps > 0) {
+                mSlowFrames[a] = 0;
+                mSlowFrames[b] = 0;
+            }
+        }
+        if (!mForces.isEmpty()) {
+            for (int iteration = 1; iteration < FORCE_CONTACT_ITERATIONS; iteration++) {
+                resolveContactVelocities(pairs, pairCount);
+            }
+        }
+    }
+
+    /**
+     * Trades impulses between touching pairs once more, without moving them or waking anything.
+     * In a pile one pass leaves the bubbles pushed into their other neighbours; repeating it lets
+     * the impulses spread through the pile.
+     */
+    private void resolveContactVelocities(int[] pairs, int pairCount) {
+        for (int p = 0; p < pairCount; p++) {
+            int a = pairs[p * 2];
+            int b = pairs[p * 2 + 1];
+            if (mSleeping[a] && mSleeping[b]) {
+                continue;
+            }
+            float dx = mX[b] - mX[a];
+            float dy = mY[b] - mY[a];
+            float radii = mRadius[a] + mRadius[b];
+            float distanceSquared = dx * dx + dy * dy;
+            if (distanceSquared > radii * radii || distanceSquared == 0) {
+                continue;
+            }
+            float distance = (float) Math.sqrt(distanceSquared);
+            float normalX = dx / distance;
+            float normalY = dy / distance;
+            float inverseMassA = mSleeping[a] ? 0 : getInverseMass(a);
+            float inverseMassB = mSleeping[b] ? 0 : getInverseMass(b);
+            if (inverseMassA + inverseMassB > 0) {
+                applyImpulse(a, b, normalX, normalY, inverseMassA, inverseMassB);
+            }
+        }
+    }
+
+    /**
+     * Moves one bubble through the step after its collisions are resolved: off the bounds, along
+     * its velocity or, when it is fast, swept along its path, and then updates its sleep state.
+     * With {@code sweepNow} unset a fast bubble is left for the caller to sweep.
+     */
+    private void advanceBubble(int index, float dt, int worker, boolean sweepNow) {
+        if (!mPlaced[index]) {
+            return;
+        }
+        if (mHeld[index]) {
+            mWorkerAwake[worker]++;
+            return;
+        }
+        if (mSleeping[index]) {
+            mWorkerSleeping[worker]++;
+            return;
+        }
+        float bubbleDt = dt;
+        if (!isActive(index)) {
+            // Spread the inactive bubbles over the interval so they do not all step together.
+            if (mInactiveStepInterval <= 0 || (mStepCount + index) % mInactiveStepInterval != 0) {
+                mWorkerAwake[worker]++;
+                return;
+            }
+            bubbleDt = dt * mInactiveStepInterval;
+        }
+        if (mDamping > 0) {
+            dampBubble(index, bubbleDt == dt ? mStepSpeedKept : getSpeedKept(bubbleDt));
+        }
+        if (bounceOffBounds(index)) {
+            mWorkerBounces[worker]++;
+        }
+        if (mSpeed[index] * bubbleDt > mRadius[index]) {
+            // Fast enough to jump past a bound or a bubble in one step; sweep it instead.
+            if (!sweepNow) {
+                int slot = mWorkerSweepCounts[worker]++;
+                mWorkerSweeps[worker][slot] = index;
+                mWorkerSweepDts[worker][slot] = bubbleDt;
+                return;
+            }
+            mWorkerBounces[worker] += sweepBubble(index, bubbleDt);
+        } else {
+            mX[index] += mVx[index] * bubbleDt;
+            mY[index] += mVy[index] * bubbleDt;
+        }
+        updateSleep(index);
+        if (mSleeping[index]) {
+            mWorkerSleeping[worker]++;
+        } else {
+            mWorkerAwake[worker]++;
+        }
+    }
+
+    private float getSpeedKept(float dt) {
+        return mDamping > 0 ? (float) StrictMath.exp(-mDamping * dt) : 1;
+    }
+
+    /**
+     * Scales the bubble's velocity and its cruising speed by {@code kept}.
+     */
+    private void dampBubble(int index, float kept) {
+        mVx[index] *= kept;
+        mVy[index] *= kept;
+        mSpeed[index] *= kept;
+        mOldSpeed[index] *= kept;
+    }
+
+    private void clearWorkerCounters(int workers) {
+        for (int w = 0; w < workers; w++) {
+            mWorkerCollisions[w] = 0;
+            mWorkerBounces[w] = 0;
+            mWorkerAwake[w] = 0;
+            mWorkerSleeping[w] = 0;
+            mWorkerSweepCounts[w] = 0;
+        }
+    }
+
+    private void stepParallel(float dt) {
+        int workers = mWorkerCount;
+        if (mWorkerPool == null) {
+            mWorkerPool = new WorkerPool(workers);
+        }
+        ensureParallelCapacity(workers);
+        clearWorkerCounters(workers);
+
+        buildGrid();
+        int pairCount = mGrid.findCandidatePairs();
+        buildPairLists(pairCount);
+        mParallelDt = dt;
+        mParallelFirstPass = true;
+        mWorkerPool.run(mContactTask, pairCount);
+        mParallelApplyOnAdvance = mForces.isEmpty();
+        if (!mParallelApplyOnAdvance) {
+            mWorkerPool.run(mApplyTask, mCount);
+            mParallelFirstPass = false;
+            for (int iteration = 1; iteration < FORCE_CONTACT_ITERATIONS; iteration++) {
+                mWorkerPool.run(mContactTask, pairCount);
+                mWorkerPool.run(mApplyTask, mCount);
+            }
+        }
+        mWorkerPool.run(mAdvanceTask, mCount);
+
+        mCollisionCount = 0;
+        mBounceCount = 0;
+        mAwakeCount = 0;
+        mSleepingCount = 0;
+        for (int w = 0; w < workers; w++) {
+            mCollisionCount += mWorkerCollisions[w];
+            mBounceCount += mWorkerBounces[w];
+            mAwakeCount += mWorkerAwake[w];
+            mSleepingCount += mWorkerSleeping[w];
+        }
+        // Sweeps move other bubbles too, so they run here, in index order, after the workers.
+        for (int w = 0; w < workers; w++) {
+            for (int k = 0; k < mWorkerSweepCounts[w]; k++) {
+                int index = mWorkerSweeps[w][k];
+                mBounceCount += sweepBubble(index, mWorkerSweepDts[w][k]);
+                updateSleep(index);
+                if (mSleeping[index]) {
+                    mSleepingCount++;
+                } else {
+                    mAwakeCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * First phase of a parallel step: works out the contact of candidate pairs [start, end) from
+     * the state at the start of the step, which nothing changes during this phase.
+     */
+    private void findContacts(int start, int end, int worker) {
+        int[] pairs = mGrid.getPairs();
+        for (int p = start; p < end; p++) {
+            int a = pairs[p * 2];
+            int b = pairs[p * 2 + 1];
+            mContactTouching[p] = false;
+            if (mSleeping[a] && mSleeping[b]) {
+                continue;
+            }
+            float dx = mX[b] - mX[a];
+            float dy = mY[b] - mY[a];
+            float radii = mRadius[a] + mRadius[b];
+            float distanceSquared = dx * dx + dy * dy;
+            if (distanceSquared > radii * radii) {
+                continue;
+            }
+            float distance = (float) Math.sqrt(distanceSquared);
+            float normalX = 1;
+            float normalY = 0;
+            if (distance > 0) {
+                normalX = dx / distance;
+                normalY = dy / distance;
+            }
+            boolean resting = isRestingContact(a, b, normalX, normalY, radii - distance);
+            // After the first pass, whatever still sleeps stays asleep and does not give way.
+            boolean immovableSleepers = resting || !mParallelFirstPass;
+            float inverseMassA = immovableSleepers && mSleeping[a] ? 0 : getInverseMass(a);
+            float inverseMassB = immovableSleepers && mSleeping[b] ? 0 : getInverseMass(b);
+            float inverseMassSum = inverseMassA + inverseMassB;
+            if (inverseMassSum == 0) {
+                continue;
+            }
+            mContactTouching[p] = true;
+            mContactResting[p] = resting;
+            if (mParallelFirstPass) {
+                mWorkerCollisions[worker]++;
+            }
+            float approachSpeed = (mVx[b] - mVx[a]) * normalX + (mVy[b] - mVy[a]) * normalY;
+            mContactNormalX[p] = normalX;
+            mContactNormalY[p] = normalY;
+            float restitution = mParallelFirstPass ? getRestitution(a, b, approachSpeed) : 0;
+            mContactImpulse[p] = approachSpeed < 0 ? -(1 + restitution) * approachSpeed / inverseMassSum : 0;
+            mContactCorrection[p] = Math.max(radii - distance - PENETRATION_SLOP, 0) * POSITION_CORRECTION / inverseMassSum;
+        }
+    }
+
+    /**
+     * Second phase of a parallel step: applies the sum of a bubble's contacts to it alone. Later
+     * passes, run while forces act, only trade impulses again.
+     */
+    private void applyContacts(int index, boolean firstPass) {
+        if (!firstPass && mSleeping[index]) {
+            return;
+        }
+        int[] pairs = mGrid.getPairs();
+        float inverseMass = getInverseMass(index);
+        boolean touched = false;
+        boolean bounced = false;
+        for (int k = mPairStart[index]; k < mPairStart[index + 1]; k++) {
+            int p = mPairList[k];
+            if (!mContactTouching[p] || (mContactResting[p] && mSleeping[index])) {
+                continue;
+            }
+            touched = true;
+            // The normal points from the pair's first bubble to its second.
+            float sign = pairs[p * 2] == index ? -inverseMass : inverseMass;
+            float impulse = mContactImpulse[p];
+            if (impulse != 0) {
+                mVx[index] += sign * impulse * mContactNormalX[p];
+                mVy[index] += sign * impulse * mContactNormalY[p];
+                bounced = true;
+            }
+            if (!firstPass) {
+                continue;
+            }
+            mX[index] += sign * mContactCorrection[p] * mContactNormalX[p];
+            mY[index] += sign * mContactCorrection[p] * mContactNormalY[p];
+            if (mContactCorrection[p] > 0 && mResizeSettleSteps > 0) {
+                mSlowFrames[index] = 0;
+            }
+        }
+        if (firstPass && touched && mSleeping[index]) {
+            wakeBubble(index);
+        }
+        if (bounced) {
+            updateSpeed(index);
+            slowerBubbleIfNeeded(index);
+        }
+    }
+
+    /**
+     * Lists every bubble's candidate pairs, in pair order, so the second phase sums them in the
+     * same order however the bubbles are split across workers.
+     */
+    private void buildPairLists(int pairCount) {
+        if (mPairStart.length < mCount + 1) {
+            mPairStart = new int[Math.max(mCount + 1, mPairStart.length * 2)];
+        }
+        if (mPairList.length < pairCount * 2) {
+            mPairList = new int[Math.max(pairCount * 2, mPairList.length * 2)];
+        }
+        if (mContactTouching.length < pairCount) {
+            int capacity = Math.max(pairCount, mContactTouching.length * 2);
+            mContactTouching = new boolean[capacity];
+            mContactResting = new boolean[capacity];
+            mContactNormalX = new float[capacity];
+            mContactNormalY = new float[capacity];
+            mContactImpulse = new float[capacity];
+            mContactCorrection = new float[capacity];
+        }
+        int[] pairs = mGrid.getPairs();
+        Arrays.fill(mPairStart, 0, mCount + 1, 0);
+        for (int k = 0; k < pairCount * 2; k++) {
+            mPairStart[pairs[k] + 1]++;
+        }
+        for (int i = 0; i < mCount; i++) {
+            mPairStart[i + 1] += mPairStart[i];
+        }
+        // Fill back to front, leaving each mPairStart[i + 1] at the start of bubble i's list.
+        for (int k = pairCount * 2 - 1; k >= 0; k--) {
+            int bubble = pairs[k];
+            mPairList[--mPairStart[bubble + 1]] = k / 2;
+        }
+        System.arraycopy(mPairStart, 1, mPairStart, 0, mCount);
+        mPairStart[mCount] = pairCount * 2;
+    }
+
+    private void ensureParallelCapacity(int workers) {
+        if (mWorkerCollisions.length < workers) {
+            mWorkerCollisions = new int[workers];
+            mWorkerBounces = new int[workers];
+            mWorkerAwake = new int[workers];
+            mWorkerSleeping = new int[workers];
+            mWorkerSweepCounts = new int[workers];
+            mWorkerSweeps = new int[workers][0];
+            mWorkerSweepDts = new float[workers][0];
+        }
+        int chunk = (mCount + workers - 1) / workers;
+        for (int w = 0; w < workers; w++) {
+            if (mWorkerSweeps[w].length < chunk) {
+                mWorkerSweeps[w] = new int[Math.max(chunk, mWorkerSweeps[w].length * 2)];
+                mWorkerSweepDts[w] = new float[mWorkerSweeps[w].length];
+            }
+        }
+    }
+
+    /**
+     * Returns whether one of a and b sleeps and the other one is too slow to wake it, e.g. because
+     * a force presses it against the sleeping one. The sleeping bubble then stays asleep and acts
+     * as if infinitely heavy, so piles of bubbles can fall asleep. While a resized bubble or woken
+     * unsettled ones settle, any overlap wakes it, so the bubbles around them can make room.
+     */
+    private boolean isRestingContact(int a, int b, float normalX, float normalY, float overlap) {
+        if (mSleeping[a] == mSleeping[b] || (mResizeSettleSteps > 0 && overlap > 0)) {
+            return false;
+        }
+        float approachSpeed = (mVx[b] - mVx[a]) * normalX + (mVy[b] - mVy[a]) * normalY;
+        return approachSpeed > -getRestingSpeed(a, b);
+    }
+
+    /**
+     * Returns the approach speed up to which a and b are taken to rest on each other rather than
+     * collide: the sleep speed plus whatever forces added to their speed this step.
+     */
+    private float getRestingSpeed(int a, int b) {
+        float speed = mSleepSpeed;
+        if (!mForces.isEmpty()) {
+            speed += getForceSpeed(a) + getForceSpeed(b);
+        }
+        return speed;
+    }
+
+    /**
+     * Returns the restitution of a contact between a and b. While forces act, a contact that
+     * approaches no faster than they press the bubbles together is a resting one and does not
+     * bounce; bouncing it would let the bubbles hop on a pile forever.
+     */
+    private float getRestitution(int a, int b, float approachSpeed) {
+        if (!mForces.isEmpty() && approachSpeed > -getRestingSpeed(a, b)) {
+            return 0;
+        }
+        return mRestitution;
+    }
+
+    /**
+     * Returns the speed the forces gave the bubble this step.
+     */
+    private float getForceSpeed(int index) {
+        if (mSleeping[index] || mHeld[index]) {
+            return 0;
+        }
+        return (float) Math.sqrt(mAx[index] * mAx[index] + mAy[index] * mAy[index]) * mStepDt;
+    }
+
+    /**
+     * Bounces a and b off each other if they approach along the normal, which points from a to b,
+     * or only stops them approaching if they merely rest on each other.
+     */
+    private void applyImpulse(int a, int b, float normalX, float normalY, float inverseMassA, float inverseMassB) {
+        float approachSpeed = (mVx[b] - mVx[a]) * normalX + (mVy[b] - mVy[a]) * normalY;
+        if (approachSpeed >= 0) {
+            return;
+        }
+        float restitution = getRestitution(a, b, approachSpeed);
+        float impulse = -(1 + restitution) * approachSpeed / (inverseMassA + inverseMassB);
+        mVx[a] -= impulse * inverseMassA * normalX;
+        mVy[a] -= impulse * inverseMassA * normalY;
+        mVx[b] += impulse * inverseMassB * normalX;
+        mVy[b] += impulse * inverseMassB * normalY;
+        updateSpeed(a);
+        updateSpeed(b);
+        slowerBubbleIfNeeded(a);
+        slowerBubbleIfNeeded(b);
+    }
+
+    /**
+     * Moves a bubble that covers more than its radius in this step along its path, stopping at the
+     * first bubble or bound it would otherwise pass through and spending the rest of the step on
+     * the rebound. Other bubbles are taken where they are now. Returns the number of bounds hit.
+     */
+    private int sweepBubble(int index, float dt) {
+        int boundsHits = 0;
+        float remaining = 1;
+        for (int sweep = 0; sweep < MAX_SWEEP_HITS && remaining > 0; sweep++) {
+            float x = mX[index];
+            float y = mY[index];
+            float radius = mRadius[index];
+            float moveX = mVx[index] * dt * remaining;
+            float moveY = mVy[index] * dt * remaining;
+
+            // Earliest fraction of the move at which the bubble touches a bound or another bubble.
+            float impact = 1;
+            int wallAxis = -1;
+            if (moveX < 0 && x - radius >= mLeft && x + moveX - radius < mLeft) {
+                impact = (mLeft + radius - x) / moveX;
+                wallAxis = 0;
+            } else if (moveX > 0 && x + radius <= mRight && x + moveX + radius > mRight) {
+                impact = (mRight - radius - x) / moveX;
+                wallAxis = 0;
+            }
+            if (moveY < 0 && y - radius >= mTop && y + moveY - radius < mTop) {
+                float impactY = (mTop + radius - y) / moveY;
+                if (impactY < impact) {
+                    impact = impactY;
+                    wallAxis = 1;
+                }
+            } else if (moveY > 0 && y + radius <= mBottom && y + moveY + radius > mBottom) {
+                float impactY = (mBottom - radius - y) / moveY;
+                if (impactY < impact) {
+                    impact = impactY;
+                    wallAxis = 1;
+                }
+            }
+
+            int hitBubble = -1;
+            float moveLengthSquared = moveX * moveX + moveY * moveY;
+            int candidates = mGrid.query(Math.min(x, x + moveX) - radius, Math.min(y, y + moveY) - radius,
+                    Math.max(x, x + moveX) + radius, Math.max(y, y + moveY) + radius);
+            int[] results = mGrid.getQueryResults();
+            for (int c = 0; c < candidates; c++) {
+                int other = results[c];
+                if (other == index) {
+                    continue;
+                }
+                float offsetX = x - mX[other];
+                float offsetY = y - mY[other];
+                float radii = radius + mRadius[other];
+                float separation = offsetX * offsetX + offsetY * offsetY - radii * radii;
+                float approach = offsetX * moveX + offsetY * moveY;
+                if (separation < 0 || approach >= 0) {
+                    // Already overlapping, which the collision pass handles, or moving apart.
+                    continue;
+                }
+                // Smallest t with |offset + move * t| == radii.
+                float discriminant = approach * approach - moveLengthSquared * separation;
+                if (discriminant < 0) {
+                    continue;
+                }
+                float t = (-approach - (float) Math.sqrt(discriminant)) / moveLengthSquared;
+                if (t >= 0 && t < impact) {
+                    impact = t;
+                    hitBubble = other;
+                }
+            }
+
+            mX[index] = x + moveX * impact;
+            mY[index] = y + moveY * impact;
+            remaining *= 1 - impact;
+            if (hitBubble >= 0) {
+                float normalX = mX[hitBubble] - mX[index];
+                float normalY = mY[hitBubble] - mY[index];
+                float distance = (float) Math.sqrt(normalX * normalX + normalY * normalY);
+                if (distance > 0) {
+                    wakeBubble(hitBubble);
+                    mCollisionCount++;
+                    applyImpulse(index, hitBubble, normalX / distance, normalY / distance,
+                            getInverseMass(index), getInverseMass(hitBubble));
+                }
+            } else if (wallAxis == 0) {
+                mVx[index] = -mVx[index] * mRestitution;
+                boundsHits++;
+            } else if (wallAxis == 1) {
+                mVy[index] = -mVy[index] * mRestitution;
+                boundsHits++;
+            } else {
+                break;
+            }
+            if (wallAxis >= 0 && hitBubble < 0) {
+                updateSpeed(index);
+                slowerBubbleIfNeeded(index);
+            }
+        }
+        return boundsHits;
+    }
+
+    /**
+     * Mass goes with the bubble's area. Bubbles frozen outside the active region do not move, so
+     * they act as if infinitely heavy.
+     */
+    private float getInverseMass(int index) {
+        if (mHeld[index] || (mInactiveStepInterval <= 0 && !isActive(index))) {
+            return 0;
+        }
+        float radius = Math.max(mRadius[index], 1f);
+        return 1 / (radius * radius);
+    }
+
+    private void updateSpeed(int index) {
+        mSpeed[index] = (float) Math.sqrt(mVx[index] * mVx[index] + mVy[index] * mVy[index]);
+    }
+
+    private void slowerBubbleIfNeeded(int index) {
+        float speed = mSpeed[index];
+        if (mOldSpeed[index] > 0 && speed > mOldSpeed[index]) {
+            float newSpeed = Math.max(mOldSpeed[index], speed - BOUNCE_SLOW_DOWN);
+            mVx[index] = mVx[index] * newSpeed / speed;
+            mVy[index] = mVy[index] * newSpeed / speed;
+            mSpeed[index] = newSpeed;
+        }
+    }
+
+    /**
+     * Reflects the velocity of a bubble that reaches past the bounds while heading out, losing
+     * speed by the restitution, and moves it part of the way back in. Returns whether it bounced.
+     */
+    private boolean bounceOffBounds(int index) {
+        float x = mX[index];
+        float y = mY[index];
+        float radius = mRadius[index];
+        boolean bounced = false;
+        if (x - radius < mLeft) {
+            bounced = mVx[index] < 0;
+            mVx[index] = bounced ? -mVx[index] * mRestitution : mVx[index];
+            mX[index] += (mLeft - (x - radius)) * POSITION_CORRECTION;
+        } else if (x + radius > mRight) {
+            bounced = mVx[index] > 0;
+            mVx[index] = bounced ? -mVx[index] * mRestitution : mVx[index];
+            mX[index] -= (x + radius - mRight) * POSITION_CORRECTION;
+        }
+        if (y - radius < mTop) {
+            boolean hit = mVy[index] < 0;
+            mVy[index] = hit ? -mVy[index] * mRestitution : mVy[index];
+            mY[index] += (mTop - (y - radius)) * POSITION_CORRECTION;
+            bounced |= hit;
+        } else if (y + radius > mBottom) {
+            boolean hit = mVy[index] > 0;
+            mVy[index] = hit ? -mVy[index] * mRestitution : mVy[index];
+            mY[index] -= (y + radius - mBottom) * POSITION_CORRECTION;
+            bounced |= hit;
+        }
+        if (bounced) {
+            updateSpeed(index);
+            slowerBubbleIfNeeded(index);
+        }
+        return bounced;
+    }
+
+    /**
+     * Returns a copy of the whole state, without any recording in progress. Every force is copied
+     * with {@link BubbleForce#copy()}, as a force cannot act in two simulations. The copy keeps the
+     * parallelism but not the worker threads: stepping it in parallel starts its own, which the
+     * caller releases with {@link #releaseWorkers()}.
+     *
+     * @throws IllegalStateException if a force cannot be copied
+     */
+    BubbleSimulation copy() {
+        BubbleSimulation copy = new BubbleSimulation();
+        copy.ensureCapacity(mCount);
+        copy.mCount = mCount;
+        System.arraycopy(mIds, 0, copy.mIds, 0, mCount);
+        System.arraycopy(mX, 0, copy.mX, 0, mCount);
+        System.arraycopy(mY, 0, copy.mY, 0, mCount);
+        System.arraycopy(mVx, 0, copy.mVx, 0, mCount);
+        System.arraycopy(mVy, 0, copy.mVy, 0, mCount);
+        System.arraycopy(mRadius, 0, copy.mRadius, 0, mCount);
+        System.arraycopy(mTargetRadius, 0, copy.mTargetRadius, 0, mCount);
+        System.arraycopy(mRadiusSpeed, 0, copy.mRadiusSpeed, 0, mCount);
+        copy.mResizing = mResizing;
+        copy.mResizeSettleSteps = mResizeSettleSteps;
+        System.arraycopy(mSpeed, 0, copy.mSpeed, 0, mCount);
+        System.arraycopy(mOldSpeed, 0, copy.mOldSpeed, 0, mCount);
+        System.arraycopy(mPlaced, 0, copy.mPlaced, 0, mCount);
+        System.arraycopy(mSleeping, 0, copy.mSleeping, 0, mCount);
+        System.arraycopy(mHeld, 0, copy.mHeld, 0, mCount);
+        System.arraycopy(mGroup, 0, copy.mGroup, 0, mCount);
+        for (int f = 0; f < mForces.size(); f++) {
+            BubbleForce force = mForces.get(f).copy();
+            if (force == null) {
+                throw new IllegalStateException("Cannot copy " + mForces.get(f).getClass().getName());
+            }
+            copy.mForces.add(force);
+            force.registerObserver(copy.mForceObserver);
+        }
+        copy.mForcesChanged = mForcesChanged;
+        System.arraycopy(mSlowFrames, 0, copy.mSlowFrames, 0, mCount);
+        copy.mIndexOfId = Arrays.copyOf(mIndexOfId, Math.max(mNextId, INITIAL_CAPACITY));
+        copy.mNextId = mNextId;
+        copy.mSleepSpeed = mSleepSpeed;
+        copy.mSleepFrames = mSleepFrames;
+        copy.mRestitution = mRestitution;
+        copy.mDamping = mDamping;
+        copy.mWorkerCount = mWorkerCount;
+        copy.mParallelMinBubbles = mParallelMinBubbles;
+        copy.mLeft = mLeft;
+        copy.mTop = mTop;
+        copy.mRight = mRight;
+        copy.mBottom = mBottom;
+        copy.mActiveLeft = mActiveLeft;
+        copy.mActiveTop = mActiveTop;
+        copy.mActiveRight = mActiveRight;
+        copy.mActiveBottom = mActiveBottom;
+        copy.mInactiveStepInterval = mInactiveStepInterval;
+        copy.mStepCount = mStepCount;
+        return copy;
+    }
+
+    void writeState(DataOutput out) throws IOException {
+        out.writeInt(mCount);
+        for (int i = 0; i < mCount; i++) {
+            out.writeInt(mIds[i]);
+            out.writeFloat(mX[i]);
+            out.writeFloat(mY[i]);
+            out.writeFloat(mVx[i]);
+            out.writeFloat(mVy[i]);
+            out.writeFloat(mRadius[i]);
+            out.writeFloat(mTargetRadius[i]);
+            out.writeFloat(mRadiusSpeed[i]);
+            out.writeFloat(mSpeed[i]);
+            out.writeFloat(mOldSpeed[i]);
+            out.writeBoolean(mPlaced[i]);
+            out.writeBoolean(mSleeping[i]);
+            out.writeBoolean(mHeld[i]);
+            out.writeInt(mGroup[i]);
+            out.writeInt(mSlowFrames[i]);
+        }
+        out.writeInt(mNextId);
+        out.writeFloat(mSleepSpeed);
+        out.writeInt(mSleepFrames);
+        out.writeFloat(mRestitution);
+        out.writeFloat(mDamping);
+        out.writeInt(mWorkerCount);
+        out.writeInt(mParallelMinBubbles);
+        out.writeFloat(mLeft);
+        out.writeFloat(mTop);
+        out.writeFloat(mRight);
+        out.writeFloat(mBottom);
+        out.writeFloat(mActiveLeft);
+        out.writeFloat(mActiveTop);
+        out.writeFloat(mActiveRight);
+        out.writeFloat(mActiveBottom);
+        out.writeInt(mInactiveStepInterval);
+        out.writeInt(mStepCount);
+        out.writeInt(mResizeSettleSteps);
+        writeForces(mForces, out);
+        out.writeBoolean(mForcesChanged);
+    }
+
+    /**
+     * Writes built-in forces only, see {@link BubbleForce#getType()}.
+     */
+    static void writeForces(List<BubbleForce> forces, DataOutput out) throws IOException {
+        out.writeInt(forces.size());
+        for (int f = 0; f < forces.size(); f++) {
+            forces.get(f).writeForce(out);
+        }
+    }
+
+    static List<BubbleForce> readForces(DataInput in) throws IOException {
+        int count = in.readInt();
+        List<BubbleForce> forces = new ArrayList<>(count);
+        for (int f = 0; f < count; f++) {
+            forces.add(BubbleForce.readForce(in));
+        }
+        return forces;
+    }
+
+    static BubbleSimulation readState(DataInput in) throws IOException {
+        BubbleSimulation simulation = new BubbleSimulation();
+        int count = in.readInt();
+        simulation.ensureCapacity(count);
+        simulation.mCount = count;
+        for (int i = 0; i < count; i++) {
+            simulation.mIds[i] = in.readInt();
+            simulation.mX[i] = in.readFloat();
+            simulation.mY[i] = in.readFloat();
+            simulation.mVx[i] = in.readFloat();
+            simulation.mVy[i] = in.readFloat();
+            simulation.mRadius[i] = in.readFloat();
+            simulation.mTargetRadius[i] = in.readFloat();
+            simulation.mRadiusSpeed[i] = in.readFloat();
+            simulation.mResizing |= simulation.mRadius[i] != simulation.mTargetRadius[i];
+            simulation.mSpeed[i] = in.readFloat();
+            simulation.mOldSpeed[i] = in.readFloat();
+            simulation.mPlaced[i] = in.readBoolean();
+            simulation.mSleeping[i] = in.readBoolean();
+            simulation.mHeld[i] = in.readBoolean();
+            simulation.mGroup[i] = in.readInt();
+            simulation.mSlowFrames[i] = in.readInt();
+        }
+        simulation.mNextId = in.readInt();
+        simulation.mIndexOfId = new int[Math.max(simulation.mNextId, INITIAL_CAPACITY)];
+        Arrays.fill(simulation.mIndexOfId, NO_ID);
+        for (int i = 0; i < count; i++) {
+            simulation.mIndexOfId[simulation.mIds[i]] = i;
+        }
+        simulation.mSleepSpeed = in.readFloat();
+        simulation.mSleepFrames = in.readInt();
+        simulation.mRestitution = in.readFloat();
+        simulation.mDamping = in.readFloat();
+        simulation.mWorkerCount = in.readInt();
+        simulation.mParallelMinBubbles = in.readInt();
+        simulation.mLeft = in.readFloat();
+        simulation.mTop = in.readFloat();
+        simulation.mRight = in.readFloat();
+        simulation.mBottom = in.readFloat();
+        simulation.mActiveLeft = in.readFloat();
+        simulation.mActiveTop = in.readFloat();
+        simulation.mActiveRight = in.readFloat();
+        simulation.mActiveBottom = in.readFloat();
+        simulation.mInactiveStepInterval = in.readInt();
+        simulation.mStepCount = in.readInt();
+        simulation.mResizeSettleSteps = in.readInt();
+        simulation.setForces(readForces(in), false);
+        simulation.mForcesChanged = in.readBoolean();
+        return simulation;
+    }
+
+    private void moveBubble(int from, int to) {
+        mIds[to] = mIds[from];
+        mX[to] = mX[from];
+        mY[to] = mY[from];
+        mVx[to] = mVx[from];
+        mVy[to] = mVy[from];
+        mRadius[to] = mRadius[from];
+        mTargetRadius[to] = mTargetRadius[from];
+        mRadiusSpeed[to] = mRadiusSpeed[from];
+        mSpeed[to] = mSpeed[from];
+        mOldSpeed[to] = mOldSpeed[from];
+        mPlaced[to] = mPlaced[from];
+        mSleeping[to] = mSleeping[from];
+        mHeld[to] = mHeld[from];
+        mGroup[to] = mGroup[from];
+        mSlowFrames[to] = mSlowFrames[from];
+        mIndexOfId[mIds[to]] = to;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mX.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mX.length * 2);
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mX = Arrays.copyOf(mX, newCapacity);
+        mY = Arrays.copyOf(mY, newCapacity);
+        mVx = Arrays.copyOf(mVx, newCapacity);
+        mVy = Arrays.copyOf(mVy, newCapacity);
+        mRadius = Arrays.copyOf(mRadius, newCapacity);
+        mTargetRadius = Arrays.copyOf(mTargetRadius, newCapacity);
+        mRadiusSpeed = Arrays.copyOf(mRadiusSpeed, newCapacity);
+        mSpeed = Arrays.copyOf(mSpeed, newCapacity);
+        mOldSpeed = Arrays.copyOf(mOldSpeed, newCapacity);
+        mPlaced = Arrays.copyOf(mPlaced, newCapacity);
+        mSleeping = Arrays.copyOf(mSleeping, newCapacity);
+        mHeld = Arrays.copyOf(mHeld, newCapacity);
+        mGroup = Arrays.copyOf(mGroup, newCapacity);
+        mSlowFrames = Arrays.copyOf(mSlowFrames, newCapacity);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Works out a settled arrangement of bubbles without showing them, e.g. on a background thread or
+ * at build time, for screens whose bubbles do not need to move. The bubbles are packed around the
+ * center of the container like {@link BubblePlacement} does, the pack is stretched to the
+ * container's shape if it does not fit, and then the bubbles are simulated, starting at rest, until
+ * none of them overlaps another one or the container's edges and all of them have come to rest.
+ * Forces added to the solver act until the bubbles have settled into the shape they give them;
+ * then the forces are removed, as they keep pressing neighbours into each other, and the
+ * remaining overlaps are pushed apart.
+ * <p/>
+ * A solver is not thread safe, but separate solvers can run on separate threads.
+ */
+public class BubbleSolver {
+
+    public static final int DEFAULT_MAX_STEPS = 5000;
+    public static final float DEFAULT_TOLERANCE = 1f;
+
+    private static final long STEP_NANOS = 16L * 1000 * 1000;
+    // Bubbles slower than this, in pixels per second, count as resting.
+    private static final float REST_SPEED = 3f;
+    // Steps between checks for convergence, which cost about as much as a step.
+    private static final int CHECK_INTERVAL = 8;
+
+    private final BubblePlacement mPlacement = new BubblePlacement();
+    private final List<BubbleForce> mForces = new ArrayList<>();
+    private int mMaxSteps = DEFAULT_MAX_STEPS;
+    private float mTolerance = DEFAULT_TOLERANCE;
+    private int mStepCount;
+
+    /**
+     * Sets the gap between neighbouring bubbles in the initial pack.
+     */
+    public void setPadding(float padding) {
+        mPlacement.setPadding(padding);
+    }
+
+    /**
+     * Sets the direction, in radians, the initial pack is turned to.
+     */
+    public void setStartRadians(double startRadians) {
+        mPlacement.setStartRadians(startRadians);
+    }
+
+    /**
+     * Adds a force to the relaxation, e.g. a {@link CenterGravity} with a {@link LinearDrag} to
+     * pull the bubbles closer together. Without forces only overlaps and bubbles outside the
+     * container are resolved. Each solve adds the forces to its own simulation, so they must not
+     * act anywhere else while the solver runs.
+     */
+    public void addForce(BubbleForce force) {
+        mForces.add(force);
+    }
+
+    public void clearForces() {
+        mForces.clear();
+    }
+
+    /**
+     * Sets the number of simulation steps after which the solver gives up and returns the
+     * arrangement it got to, marked as not converged.
+     */
+    public void setMaxSteps(int maxSteps) {
+        mMaxSteps = maxSteps;
+    }
+
+    /**
+     * Sets the overlap, in pixels, between bubbles or past the container's edges that still counts
+     * as settled.
+     */
+    public void setTolerance(float tolerance) {
+        mTolerance = tolerance;
+    }
+
+    /**
+     * Returns the number of steps the last {@link #solve(float[], int, float, float)} took.
+     */
+    public int getStepCount() {
+        return mStepCount;
+    }
+
+    /**
+     * Arranges {@code count} bubbles of the given radii in a container of the given size, with the
+     * origin at its top left corner.
+     */
+    public BubbleArrangement solve(float[] radii, int count, float width, float height) {
+        BubbleSimulation simulation = new BubbleSimulation();
+        simulation.setBounds(0, 0, width, height);
+        simulation.setRestitution(0);
+        int[] indices = new int[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = simulation.indexOf(simulation.addBubble(radii[i], 0, 0));
+        }
+        mPlacement.place(simulation, indices, count, width / 2, height / 2, true);
+        fitToBounds(simulation, width, height);
+        // Under forces, bubbles sleep once the pile they press into has settled, which ends the
+        // first phase. Without them, bubbles resting against each other must keep being pushed
+        // apart, so none may sleep.
+        boolean shaping = !mForces.isEmpty();
+        if (shaping) {
+            for (int f = 0; f < mForces.size(); f++) {
+                simulation.addForce(mForces.get(f));
+            }
+        } else {
+            simulation.setSleepThreshold(0, Integer.MAX_VALUE);
+        }
+
+        boolean converged = false;
+        mStepCount = 0;
+        while (true) {
+            if (shaping && mStepCount > 0 && !simulation.isMoving()) {
+                shaping = false;
+                simulation.clearForces();
+                simulation.setSleepThreshold(0, Integer.MAX_VALUE);
+            }
+            // Forces have to get a chance to move the bubbles before they can be found at rest.
+            boolean checkable = mStepCount > 0 || mForces.isEmpty();
+            if (checkable && mStepCount % CHECK_INTERVAL == 0 && isSettled(simulation)) {
+                converged = true;
+                break;
+            }
+            if (mStepCount == mMaxSteps) {
+                break;
+            }
+            simulation.step(STEP_NANOS);
+            mStepCount++;
+        }
+
+        float[] x = new float[count];
+        float[] y = new float[count];
+        simulation.copyPositions(x, y);
+        // Stops the forces from notifying a simulation that is no longer used.
+        simulation.clearForces();
+        return new BubbleArrangement(width, height, x, y, Arrays.copyOf(radii, count), converged);
+    }
+
+    /**
+     * Stretches a pack that does not fit the container to its shape, keeping its area, so the
+     * relaxation only has to push neighbours apart instead of moving whole rows of bubbles.
+     */
+    private void fitToBounds(BubbleSimulation simulation, float width, float height) {
+        int count = simulation.getBubbleCount();
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            float radius = simulation.getRadius(i);
+            minX = Math.min(minX, simulation.getX(i) - radius);
+            minY = Math.min(minY, simulation.getY(i) - radius);
+            maxX = Math.max(maxX, simulation.getX(i) + radius);
+            maxY = Math.max(maxY, simulation.getY(i) + radius);
+        }
+        float packWidth = maxX - minX;
+        float packHeight = maxY - minY;
+        if (count == 0 || (packWidth <= width && packHeight <= height)) {
+            return;
+        }
+        float scaleX = 1;
+        float scaleY = 1;
+        if (packWidth > width) {
+            scaleX = width / packWidth;
+            scaleY = Math.min(1 / scaleX, Math.max(height / packHeight, 1));
+        }
+        if (packHeight * scaleY > height) {
+            scaleY = height / packHeight;
+            scaleX = Math.min(1 / scaleY, Math.max(width / packWidth, scaleX));
+        }
+        float centerX = (minX + maxX) / 2;
+        float centerY = (minY + maxY) / 2;
+        for (int i = 0; i < count; i++) {
+            simulation.setBubblePosition(i,
+                    width / 2 + (simulation.getX(i) - centerX) * scaleX,
+                    height / 2 + (simulation.getY(i) - centerY) * scaleY);
+        }
+    }
+
+    private boolean isSettled(BubbleSimulation simulation) {
+        for (int i = 0; i < simulation.getBubbleCount(); i++) {
+            if (simulation.getSpeed(i) > REST_SPEED) {
+                return false;
+            }
+        }
+        return simulation.getMaxOverlap() <= mTolerance;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Pulls every bubble toward a point like a spring: the acceleration grows with the distance. The
+ * point is the center of the simulation's bounds unless set.
+ */
+public class CenterGravity extends BubbleForce {
+
+    private float mStrength;
+    private boolean mHasCenter;
+    private float mCenterX;
+    private float mCenterY;
+
+    /**
+     * @param strength acceleration per pixel of distance, in pixels per second squared
+     */
+    public CenterGravity(float strength) {
+        mStrength = strength;
+    }
+
+    public void setStrength(float strength) {
+        mStrength = strength;
+        notifyChanged();
+    }
+
+    public void setCenter(float x, float y) {
+        mHasCenter = true;
+        mCenterX = x;
+        mCenterY = y;
+        notifyChanged();
+    }
+
+    /**
+     * Goes back to pulling toward the center of the bounds.
+     */
+    public void clearCenter() {
+        mHasCenter = false;
+        notifyChanged();
+    }
+
+    @Override
+    public void apply(BubbleSimulation simulation, float[] ax, float[] ay) {
+        float centerX = mHasCenter ? mCenterX : simulation.getBoundsCenterX();
+        float centerY = mHasCenter ? mCenterY : simulation.getBoundsCenterY();
+        for (int i = 0; i < simulation.getBubbleCount(); i++) {
+            ax[i] += (centerX - simulation.getX(i)) * mStrength;
+            ay[i] += (centerY - simulation.getY(i)) * mStrength;
+        }
+    }
+
+    @Override
+    public BubbleForce copy() {
+        CenterGravity copy = new CenterGravity(mStrength);
+        copy.mHasCenter = mHasCenter;
+        copy.mCenterX = mCenterX;
+        copy.mCenterY = mCenterY;
+        return copy;
+    }
+
+    @Override
+    int getType() {
+        return CENTER_GRAVITY;
+    }
+
+    @Override
+    void writeParameters(DataOutput out) throws IOException {
+        out.writeFloat(mStrength);
+        out.writeBoolean(mHasCenter);
+        out.writeFloat(mCenterX);
+        out.writeFloat(mCenterY);
+    }
+
+    static CenterGravity read(DataInput in) throws IOException {
+        CenterGravity force = new CenterGravity(in.readFloat());
+        force.mHasCenter = in.readBoolean();
+        force.mCenterX = in.readFloat();
+        force.mCenterY = in.readFloat();
+        return force;
+    }
+}
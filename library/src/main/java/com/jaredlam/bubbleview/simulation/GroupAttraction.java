@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Clusters bubbles by {@link BubbleSimulation#setBubbleGroup(int, int) group}: every bubble is
+ * pulled like a spring toward its group's anchor, or toward the middle of its group when the group
+ * has no anchor.
+ */
+public class GroupAttraction extends BubbleForce {
+
+    private float mStrength;
+
+    // Per group, indexed by group number.
+    private boolean[] mHasAnchor = new boolean[0];
+    private float[] mAnchorX = new float[0];
+    private float[] mAnchorY = new float[0];
+    private float[] mTargetX = new float[0];
+    private float[] mTargetY = new float[0];
+    private int[] mMembers = new int[0];
+
+    /**
+     * @param strength acceleration per pixel of distance, in pixels per second squared
+     */
+    public GroupAttraction(float strength) {
+        mStrength = strength;
+    }
+
+    public void setStrength(float strength) {
+        mStrength = strength;
+        notifyChanged();
+    }
+
+    /**
+     * Pulls the bubbles of {@code group}, which must not be negative, toward the given point.
+     */
+    public void setAnchor(int group, float x, float y) {
+        ensureGroups(group + 1);
+        mHasAnchor[group] = true;
+        mAnchorX[group] = x;
+        mAnchorY[group] = y;
+        notifyChanged();
+    }
+
+    public void clearAnchor(int group) {
+        if (group < mHasAnchor.length) {
+            mHasAnchor[group] = false;
+            notifyChanged();
+        }
+    }
+
+    @Override
+    public void apply(BubbleSimulation simulation, float[] ax, float[] ay) {
+        int count = simulation.getBubbleCount();
+        int groups = 0;
+        for (int i = 0; i < count; i++) {
+            groups = Math.max(groups, simulation.getGroup(i) + 1);
+        }
+        ensureGroups(groups);
+        Arrays.fill(mTargetX, 0, groups, 0);
+        Arrays.fill(mTargetY, 0, groups, 0);
+        Arrays.fill(mMembers, 0, groups, 0);
+        for (int i = 0; i < count; i++) {
+            int group = simulation.getGroup(i);
+            if (group >= 0 && simulation.isPlaced(i)) {
+                mTargetX[group] += simulation.getX(i);
+                mTargetY[group] += simulation.getY(i);
+                mMembers[group]++;
+            }
+        }
+        for (int group = 0; group < groups; group++) {
+            if (mHasAnchor[group]) {
+                mTargetX[group] = mAnchorX[group];
+                mTargetY[group] = mAnchorY[group];
+            } else if (mMembers[group] > 0) {
+                mTargetX[group] /= mMembers[group];
+                mTargetY[group] /= mMembers[group];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int group = simulation.getGroup(i);
+            if (group >= 0) {
+                ax[i] += (mTargetX[group] - simulation.getX(i)) * mStrength;
+                ay[i] += (mTargetY[group] - simulation.getY(i)) * mStrength;
+            }
+        }
+    }
+
+    @Override
+    public BubbleForce copy() {
+        GroupAttraction copy = new GroupAttraction(mStrength);
+        copy.ensureGroups(mHasAnchor.length);
+        System.arraycopy(mHasAnchor, 0, copy.mHasAnchor, 0, mHasAnchor.length);
+        System.arraycopy(mAnchorX, 0, copy.mAnchorX, 0, mAnchorX.length);
+        System.arraycopy(mAnchorY, 0, copy.mAnchorY, 0, mAnchorY.length);
+        return copy;
+    }
+
+    @Override
+    int getType() {
+        return GROUP_ATTRACTION;
+    }
+
+    @Override
+    void writeParameters(DataOutput out) throws IOException {
+        out.writeFloat(mStrength);
+        out.writeInt(mHasAnchor.length);
+        for (int group = 0; group < mHasAnchor.length; group++) {
+            out.writeBoolean(mHasAnchor[group]);
+            out.writeFloat(mAnchorX[group]);
+            out.writeFloat(mAnchorY[group]);
+        }
+    }
+
+    static GroupAttraction read(DataInput in) throws IOException {
+        GroupAttraction force = new GroupAttraction(in.readFloat());
+        int groups = in.readInt();
+        force.ensureGroups(groups);
+        for (int group = 0; group < groups; group++) {
+            force.mHasAnchor[group] = in.readBoolean();
+            force.mAnchorX[group] = in.readFloat();
+            force.mAnchorY[group] = in.readFloat();
+        }
+        return force;
+    }
+
+    private void ensureGroups(int groups) {
+        if (mHasAnchor.length >= groups) {
+            return;
+        }
+        int capacity = Math.max(groups, mHasAnchor.length * 2);
+        mHasAnchor = Arrays.copyOf(mHasAnchor, capacity);
+        mAnchorX = Arrays.copyOf(mAnchorX, capacity);
+        mAnchorY = Arrays.copyOf(mAnchorY, capacity);
+        mTargetX = new float[capacity];
+        mTargetY = new float[capacity];
+        mMembers = new int[capacity];
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Slows every bubble down in proportion to its speed, so that the energy bounces and other forces
+ * put in dies out and the bubbles come to rest and sleep.
+ */
+public class LinearDrag extends BubbleForce {
+
+    private float mCoefficient;
+
+    /**
+     * @param coefficient share of its velocity a bubble loses per second, for small coefficients
+     */
+    public LinearDrag(float coefficient) {
+        mCoefficient = coefficient;
+    }
+
+    public void setCoefficient(float coefficient) {
+        mCoefficient = coefficient;
+        notifyChanged();
+    }
+
+    @Override
+    public void apply(BubbleSimulation simulation, float[] ax, float[] ay) {
+        for (int i = 0; i < simulation.getBubbleCount(); i++) {
+            ax[i] -= simulation.getVelocityX(i) * mCoefficient;
+            ay[i] -= simulation.getVelocityY(i) * mCoefficient;
+        }
+    }
+
+    @Override
+    public BubbleForce copy() {
+        return new LinearDrag(mCoefficient);
+    }
+
+    @Override
+    int getType() {
+        return LINEAR_DRAG;
+    }
+
+    @Override
+    void writeParameters(DataOutput out) throws IOException {
+        out.writeFloat(mCoefficient);
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Every bubble pulls on every other one, or pushes it away for a negative strength, with a force
+ * that falls off with the square of the distance and grows with the bubble's area. A bubble's
+ * own radius softens the force at short range, so overlapping bubbles do not shoot apart.
+ * <p/>
+ * Summing over every pair takes quadratic time, so from {@link #setBarnesHutMinBubbles(int)}
+ * bubbles on the force is approximated with a Barnes-Hut quadtree: a distant cell of bubbles acts
+ * as one bubble of their total area at their center of area. This takes n log n time and the
+ * error shrinks with {@link #setTheta(float) theta}.
+ */
+public class ManyBodyForce extends BubbleForce {
+
+    public static final float DEFAULT_THETA = 0.9f;
+    public static final int DEFAULT_BARNES_HUT_MIN_BUBBLES = 200;
+
+    // Deeper cells only hold bubbles at the same spot, which then share a leaf.
+    private static final int MAX_DEPTH = 24;
+
+    private float mStrength;
+    private float mTheta = DEFAULT_THETA;
+    private int mBarnesHutMinBubbles = DEFAULT_BARNES_HUT_MIN_BUBBLES;
+
+    // Quadtree nodes; the four children of a cell are allocated together, starting at
+    // mChild[node], which is -1 for a leaf. A leaf's bubbles are chained through mNextBody.
+    private int mNodeCount;
+    private int[] mChild = new int[0];
+    private int[] mFirstBody = new int[0];
+    private float[] mCenterX = new float[0];
+    private float[] mCenterY = new float[0];
+    private float[] mHalfSize = new float[0];
+    private float[] mMass = new float[0];
+    private float[] mMassX = new float[0];
+    private float[] mMassY = new float[0];
+    private int[] mNextBody = new int[0];
+    private int[] mStack = new int[0];
+
+    /**
+     * @param strength acceleration, in pixels per second squared, that a bubble gives another one
+     *                 at a distance of its own radius; negative to push bubbles apart
+     */
+    public ManyBodyForce(float strength) {
+        mStrength = strength;
+    }
+
+    public void setStrength(float strength) {
+        mStrength = strength;
+        notifyChanged();
+    }
+
+    /**
+     * Sets how far away, relative to its size, a cell must be to act as a single bubble. 0 makes
+     * the quadtree exact, larger values are faster and coarser.
+     */
+    public void setTheta(float theta) {
+        mTheta = theta;
+        notifyChanged();
+    }
+
+    /**
+     * Sets the number of bubbles from which the quadtree is used instead of summing over every
+     * pair.
+     */
+    public void setBarnesHutMinBubbles(int minBubbleCount) {
+        mBarnesHutMinBubbles = minBubbleCount;
+        notifyChanged();
+    }
+
+    @Override
+    public void apply(BubbleSimulation simulation, float[] ax, float[] ay) {
+        if (mStrength == 0) {
+            return;
+        }
+        if (simulation.getBubbleCount() < mBarnesHutMinBubbles) {
+            applyDirect(simulation, ax, ay);
+        } else {
+            applyBarnesHut(simulation, ax, ay);
+        }
+    }
+
+    @Override
+    public BubbleForce copy() {
+        ManyBodyForce copy = new ManyBodyForce(mStrength);
+        copy.mTheta = mTheta;
+        copy.mBarnesHutMinBubbles = mBarnesHutMinBubbles;
+        return copy;
+    }
+
+    @Override
+    int getType() {
+        return MANY_BODY;
+    }
+
+    @Override
+    void writeParameters(DataOutput out) throws IOException {
+        out.writeFloat(mStrength);
+        out.writeFloat(mTheta);
+        out.writeInt(mBarnesHutMinBubbles);
+    }
+
+    static ManyBodyForce read(DataInput in) throws IOException {
+        ManyBodyForce force = new ManyBodyForce(in.readFloat());
+        force.mTheta = in.readFloat();
+        force.mBarnesHutMinBubbles = in.readInt();
+        return force;
+    }
+
+    private void applyDirect(BubbleSimulation simulation, float[] ax, float[] ay) {
+        int count = simulation.getBubbleCount();
+        for (int i = 0; i < count; i++) {
+            if (!simulation.isPlaced(i)) {
+                continue;
+            }
+            float x = simulation.getX(i);
+            float y = simulation.getY(i);
+            float soft = simulation.getRadius(i) * simulation.getRadius(i);
+            float sumX = 0;
+            float sumY = 0;
+            for (int j = 0; j < count; j++) {
+                if (j == i || !simulation.isPlaced(j)) {
+                    continue;
+                }
+                float r = simulation.getRadius(j);
+                float dx = simulation.getX(j) - x;
+                float dy = simulation.getY(j) - y;
+                float q = dx * dx + dy * dy + soft;
+                float scale = r * r / (q * (float) Math.sqrt(q));
+                sumX += dx * scale;
+                sumY += dy * scale;
+            }
+            ax[i] += sumX * mStrength;
+            ay[i] += sumY * mStrength;
+        }
+    }
+
+    private void applyBarnesHut(BubbleSimulation simulation, float[] ax, float[] ay) {
+        if (!buildTree(simulation)) {
+            return;
+        }
+        int count = simulation.getBubbleCount();
+        float thetaSquared = mTheta * mTheta;
+        for (int i = 0; i < count; i++) {
+            if (!simulation.isPlaced(i)) {
+                continue;
+            }
+            float x = simulation.getX(i);
+            float y = simulation.getY(i);
+            float soft = simulation.getRadius(i) * simulation.getRadius(i);
+            float sumX = 0;
+            float sumY = 0;
+            int top = 0;
+            mStack[top++] = 0;
+            while (top > 0) {
+                int node = mStack[--top];
+                float mass = mMass[node];
+                if (mass == 0) {
+                    continue;
+                }
+                int child = mChild[node];
+                if (child < 0) {
+                    for (int j = mFirstBody[node]; j >= 0; j = mNextBody[j]) {
+                        if (j == i) {
+                            continue;
+                        }
+                        float r = simulation.getRadius(j);
+                        float dx = simulation.getX(j) - x;
+                        float dy = simulation.getY(j) - y;
+                        float q = dx * dx + dy * dy + soft;
+                        float scale = r * r / (q * (float) Math.sqrt(q));
+                        sumX += dx * scale;
+                        sumY += dy * scale;
+                    }
+                    continue;
+                }
+                float dx = mMassX[node] - x;
+                float dy = mMassY[node] - y;
+                float distanceSquared = dx * dx + dy * dy;
+                float half = mHalfSize[node];
+                // A cell that holds the bubble itself is always opened, however far its center of
+                // area, so the bubble never acts on itself.
+                boolean holdsBubble = Math.abs(x - mCenterX[node]) <= half && Math.abs(y - mCenterY[node]) <= half;
+                if (!holdsBubble && 4 * half * half < thetaSquared * distanceSquared) {
+                    float q = distanceSquared + soft;
+                    float scale = mass / (q * (float) Math.sqrt(q));
+                    sumX += dx * scale;
+                    sumY += dy * scale;
+                } else {
+                    mStack[top++] = child;
+                    mStack[top++] = child + 1;
+                    mStack[top++] = child + 2;
+                    mStack[top++] = child + 3;
+                }
+            }
+            ax[i] += sumX * mStrength;
+            ay[i] += sumY * mStrength;
+        }
+    }
+
+    /**
+     * Builds the quadtree over the placed bubbles and sums the area and center of area of every
+     * cell. Returns false if no bubble is placed.
+     */
+    private boolean buildTree(BubbleSimulation simulation) {
+        int count = simulation.getBubbleCount();
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            if (simulation.isPlaced(i)) {
+                minX = Math.min(minX, simulation.getX(i));
+                minY = Math.min(minY, simulation.getY(i));
+                maxX = Math.max(maxX, simulation.getX(i));
+                maxY = Math.max(maxY, simulation.getY(i));
+            }
+        }
+        if (minX > maxX) {
+            return false;
+        }
+        if (mNextBody.length < count) {
+            mNextBody = new int[count];
+        }
+        mNodeCount = 0;
+        allocateNode((minX + maxX) / 2, (minY + maxY) / 2, Math.max(Math.max(maxX - minX, maxY - minY) / 2, 1));
+        for (int i = 0; i < count; i++) {
+            if (simulation.isPlaced(i)) {
+                insert(simulation, i);
+            }
+        }
+
+        // Children are allocated after their parent, so walking backwards sums them first.
+        for (int node = mNodeCount - 1; node >= 0; node--) {
+            float mass = 0;
+            float massX = 0;
+            float massY = 0;
+            int child = mChild[node];
+            if (child < 0) {
+                for (int j = mFirstBody[node]; j >= 0; j = mNextBody[j]) {
+                    float m = simulation.getRadius(j) * simulation.getRadius(j);
+                    mass += m;
+                    massX += m * simulation.getX(j);
+                    massY += m * simulation.getY(j);
+                }
+            } else {
+                for (int c = child; c < child + 4; c++) {
+                    mass += mMass[c];
+                    massX += mMass[c] * mMassX[c];
+                    massY += mMass[c] * mMassY[c];
+                }
+            }
+            mMass[node] = mass;
+            mMassX[node] = mass > 0 ? massX / mass : mCenterX[node];
+            mMassY[node] = mass > 0 ? massY / mass : mCenterY[node];
+        }
+
+        // A traversal keeps at most three siblings per level on the stack besides the four it
+        // pushes last.
+        int stackSize = 3 * (MAX_DEPTH + 1) + 4;
+        if (mStack.length < stackSize) {
+            mStack = new int[stackSize];
+        }
+        return true;
+    }
+
+    private void insert(BubbleSimulation simulation, int body) {
+        float x = simulation.getX(body);
+        float y = simulation.getY(body);
+        int node = 0;
+        int depth = 0;
+        while (true) {
+            int child = mChild[node];
+            if (child >= 0) {
+                node = child + quadrant(node, x, y);
+                depth++;
+                continue;
+            }
+            int other = mFirstBody[node];
+            if (other < 0 || depth == MAX_DEPTH) {
+                mNextBody[body] = other;
+                mFirstBody[node] = body;
+                return;
+            }
+            // Split the leaf and move its single bubble down.
+            float half = mHalfSize[node] / 2;
+            float centerX = mCenterX[node];
+            float centerY = mCenterY[node];
+            child = allocateNode(centerX - half, centerY - half, half);
+            allocateNode(centerX + half, centerY - half, half);
+            allocateNode(centerX - half, centerY + half, half);
+            allocateNode(centerX + half, centerY + half, half);
+            mChild[node] = child;
+            mFirstBody[node] = -1;
+            int slot = child + quadrant(node, simulation.getX(other), simulation.getY(other));
+            mNextBody[other] = -1;
+            mFirstBody[slot] = other;
+        }
+    }
+
+    private int quadrant(int node, float x, float y) {
+        return (x < mCenterX[node] ? 0 : 1) + (y < mCenterY[node] ? 0 : 2);
+    }
+
+    private int allocateNode(float centerX, float centerY, float halfSize) {
+        if (mNodeCount == mChild.length) {
+            int capacity = Math.max(64, mNodeCount * 2);
+            mChild = Arrays.copyOf(mChild, capacity);
+            mFirstBody = Arrays.copyOf(mFirstBody, capacity);
+            mCenterX = Arrays.copyOf(mCenterX, capacity);
+            mCenterY = Arrays.copyOf(mCenterY, capacity);
+            mHalfSize = Arrays.copyOf(mHalfSize, capacity);
+            mMass = Arrays.copyOf(mMass, capacity);
+            mMassX = Arrays.copyOf(mMassX, capacity);
+            mMassY = Arrays.copyOf(mMassY, capacity);
+        }
+        int node = mNodeCount++;
+        mChild[node] = -1;
+        mFirstBody[node] = -1;
+        mCenterX[node] = centerX;
+        mCenterY[node] = centerY;
+        mHalfSize[node] = halfSize;
+        return node;
+    }
+}
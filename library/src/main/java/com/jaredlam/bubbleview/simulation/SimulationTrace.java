@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A recorded session of a {@link BubbleSimulation}: the state when recording started followed by
+ * every change made to it, touch input and forces included, and the elapsed time of every step. Replaying it
+ * runs the same calls on a copy of that state, so the replay matches the recording bit for bit
+ * and needs nothing but a JVM. Traces can be written to a stream and read back, e.g. to replay a
+ * session captured on a device on the desktop.
+ */
+public class SimulationTrace {
+
+    public interface ReplayListener {
+        /**
+         * Called after every replayed step with the number of steps so far, starting at 1.
+         */
+        void onFrame(int frame, BubbleSimulation simulation);
+    }
+
+    private static final int MAGIC = 0x42425452;
+    private static final int VERSION = 10;
+
+    private static final int ADD_BUBBLE = 1;
+    private static final int REMOVE_BUBBLE = 2;
+    private static final int CLEAR = 3;
+    private static final int SET_BOUNDS = 4;
+    private static final int SET_ACTIVE_REGION = 5;
+    private static final int SET_SLEEP_THRESHOLD = 6;
+    private static final int SET_POSITION = 7;
+    private static final int SET_RADIUS = 8;
+    private static final int SET_MOTION = 9;
+    private static final int WAKE = 10;
+    private static final int STEP = 11;
+    private static final int SET_RESTITUTION = 12;
+    private static final int SET_PARALLELISM = 13;
+    private static final int SET_STATE = 14;
+    private static final int SET_HELD = 15;
+    private static final int SET_GROUP = 16;
+    private static final int ANIMATE_RADIUS = 17;
+    private static final int SET_DAMPING = 18;
+    private static final int SET_FORCES = 19;
+    private static final int WAKE_UNSETTLED = 20;
+
+    private static final int FLOATS_PER_EVENT = 4;
+
+    private final BubbleSimulation mInitialState;
+
+    // Event k is mTypes[k] with arguments mInts[k], mLongs[k], mDoubles[k] and
+    // mFloats[k * FLOATS_PER_EVENT..]; each type uses the slots it needs.
+    private int mEventCount;
+    private int[] mTypes = new int[64];
+    private int[] mInts = new int[64];
+    private long[] mLongs = new long[64];
+    private double[] mDoubles = new double[64];
+    private float[] mFloats = new float[64 * FLOATS_PER_EVENT];
+    private int mFrameCount;
+    // Copies of the forces of every SET_FORCES event, which holds its index into this list.
+    private final List<List<BubbleForce>> mForceSets = new ArrayList<>();
+
+    SimulationTrace(BubbleSimulation initialState) {
+        mInitialState = initialState;
+    }
+
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * Returns the number of steps recorded.
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public BubbleSimulation replay() {
+        return replay(null);
+    }
+
+    /**
+     * Replays the whole trace on a copy of the recorded initial state and returns the simulation
+     * as it was when recording stopped. The worker threads of a parallel replay are released when
+     * it ends; stepping the returned simulation in parallel starts new ones, which the caller then
+     * releases.
+     */
+    public BubbleSimulation replay(ReplayListener listener) {
+        BubbleSimulation simulation = mInitialState.copy();
+        try {
+            replayEvents(simulation, listener);
+        } finally {
+            simulation.releaseWorkers();
+        }
+        return simulation;
+    }
+
+    private void replayEvents(BubbleSimulation simulation, ReplayListener listener) {
+        int frame = 0;
+        for (int k = 0; k < mEventCount; k++) {
+            int f = k * FLOATS_PER_EVENT;
+            switch (mTypes[k]) {
+                case ADD_BUBBLE:
+                    simulation.addBubble(mFloats[f], mDoubles[k], mFloats[f + 1]);
+                    break;
+                case REMOVE_BUBBLE:
+                    simulation.removeBubble(mInts[k]);
+                    break;
+                case CLEAR:
+                    simulation.clear();
+                    break;
+                case SET_BOUNDS:
+                    simulation.setBounds(mFloats[f], mFloats[f + 1], mFloats[f + 2], mFloats[f + 3]);
+                    break;
+                case SET_ACTIVE_REGION:
+                    simulation.setActiveRegion(mFloats[f], mFloats[f + 1], mFloats[f + 2], mFloats[f + 3], mInts[k]);
+                    break;
+                case SET_SLEEP_THRESHOLD:
+                    simulation.setSleepThreshold(mFloats[f], mInts[k]);
+                    break;
+                case SET_RESTITUTION:
+                    simulation.setRestitution(mFloats[f]);
+                    break;
+                case SET_DAMPING:
+                    simulation.setDamping(mFloats[f]);
+                    break;
+                case SET_PARALLELISM:
+                    simulation.setParallelism(mInts[k], (int) mLongs[k]);
+                    break;
+                case SET_POSITION:
+                    simulation.setBubblePosition(mInts[k], mFloats[f], mFloats[f + 1]);
+                    break;
+                case SET_STATE:
+                    simulation.setBubbleState(mInts[k], mFloats[f], mFloats[f + 1], mFloats[f + 2], mFloats[f + 3],
+                            (float) mDoubles[k], mLongs[k] != 0);
+                    break;
+                case SET_RADIUS:
+                    simulation.setBubbleRadius(mInts[k], mFloats[f]);
+                    break;
+                case SET_MOTION:
+                    simulation.setBubbleMotion(mInts[k], mDoubles[k], mFloats[f]);
+                    break;
+                case ANIMATE_RADIUS:
+                    simulation.animateBubbleRadius(mInts[k], mFloats[f], mLongs[k]);
+                    break;
+                case WAKE:
+                    simulation.wake(mInts[k]);
+                    break;
+                case SET_HELD:
+                    simulation.setBubbleHeld(mInts[k], mLongs[k] != 0);
+                    break;
+                case SET_GROUP:
+                    simulation.setBubbleGroup(mInts[k], (int) mLongs[k]);
+                    break;
+                case WAKE_UNSETTLED:
+                    simulation.wakeUnsettled();
+                    break;
+                case SET_FORCES:
+                    simulation.setForces(copyForces(mForceSets.get(mInts[k])), mLongs[k] != 0);
+                    break;
+                case STEP:
+                    simulation.step(mLongs[k]);
+                    frame++;
+                    if (listener != null) {
+                        listener.onFrame(frame, simulation);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown trace event " + mTypes[k]);
+            }
+        }
+    }
+
+    public void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        mInitialState.writeState(out);
+        out.writeInt(mEventCount);
+        for (int k = 0; k < mEventCount; k++) {
+            out.writeByte(mTypes[k]);
+            out.writeInt(mInts[k]);
+            out.writeLong(mLongs[k]);
+            out.writeDouble(mDoubles[k]);
+            for (int f = 0; f < FLOATS_PER_EVENT; f++) {
+                out.writeFloat(mFloats[k * FLOATS_PER_EVENT + f]);
+            }
+        }
+        out.writeInt(mForceSets.size());
+        for (List<BubbleForce> forces : mForceSets) {
+            BubbleSimulation.writeForces(forces, out);
+        }
+        out.flush();
+    }
+
+    public static SimulationTrace readFrom(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a bubble simulation trace");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported trace version " + version);
+        }
+        SimulationTrace trace = new SimulationTrace(BubbleSimulation.readState(in));
+        int eventCount = in.readInt();
+        for (int k = 0; k < eventCount; k++) {
+            int slot = trace.addEvent(in.readByte(), in.readInt(), in.readLong(), in.readDouble());
+            for (int f = 0; f < FLOATS_PER_EVENT; f++) {
+                trace.mFloats[slot * FLOATS_PER_EVENT + f] = in.readFloat();
+            }
+        }
+        int forceSetCount = in.readInt();
+        for (int s = 0; s < forceSetCount; s++) {
+            trace.mForceSets.add(BubbleSimulation.readForces(in));
+        }
+        return trace;
+    }
+
+    void recordAddBubble(float radius, double radians, float speed) {
+        int k = addEvent(ADD_BUBBLE, 0, 0, radians);
+        mFloats[k * FLOATS_PER_EVENT] = radius;
+        mFloats[k * FLOATS_PER_EVENT + 1] = speed;
+    }
+
+    void recordRemoveBubble(int id) {
+        addEvent(REMOVE_BUBBLE, id, 0, 0);
+    }
+
+    void recordClear() {
+        addEvent(CLEAR, 0, 0, 0);
+    }
+
+    void recordSetBounds(float left, float top, float right, float bottom) {
+        setFloats(addEvent(SET_BOUNDS, 0, 0, 0), left, top, right, bottom);
+    }
+
+    void recordSetActiveRegion(float left, float top, float right, float bottom, int inactiveStepInterval) {
+        setFloats(addEvent(SET_ACTIVE_REGION, inactiveStepInterval, 0, 0), left, top, right, bottom);
+    }
+
+    void recordSetSleepThreshold(float speed, int frames) {
+        mFloats[addEvent(SET_SLEEP_THRESHOLD, frames, 0, 0) * FLOATS_PER_EVENT] = speed;
+    }
+
+    void recordSetRestitution(float restitution) {
+        mFloats[addEvent(SET_RESTITUTION, 0, 0, 0) * FLOATS_PER_EVENT] = restitution;
+    }
+
+    void recordSetDamping(float perSecond) {
+        mFloats[addEvent(SET_DAMPING, 0, 0, 0) * FLOATS_PER_EVENT] = perSecond;
+    }
+
+    void recordSetParallelism(int workerCount, int minBubbleCount) {
+        addEvent(SET_PARALLELISM, workerCount, minBubbleCount, 0);
+    }
+
+    void recordSetBubblePosition(int index, float x, float y) {
+        int k = addEvent(SET_POSITION, index, 0, 0);
+        mFloats[k * FLOATS_PER_EVENT] = x;
+        mFloats[k * FLOATS_PER_EVENT + 1] = y;
+    }
+
+    void recordSetBubbleState(int index, float x, float y, float vx, float vy, float oldSpeed,
+                              boolean sleeping) {
+        setFloats(addEvent(SET_STATE, index, sleeping ? 1 : 0, oldSpeed), x, y, vx, vy);
+    }
+
+    void recordSetBubbleRadius(int index, float radius) {
+        mFloats[addEvent(SET_RADIUS, index, 0, 0) * FLOATS_PER_EVENT] = radius;
+    }
+
+    void recordAnimateBubbleRadius(int index, float radius, long durationNanos) {
+        mFloats[addEvent(ANIMATE_RADIUS, index, durationNanos, 0) * FLOATS_PER_EVENT] = radius;
+    }
+
+    void recordSetBubbleMotion(int index, double radians, float speed) {
+        mFloats[addEvent(SET_MOTION, index, 0, radians) * FLOATS_PER_EVENT] = speed;
+    }
+
+    void recordWake(int index) {
+        addEvent(WAKE, index, 0, 0);
+    }
+
+    void recordWakeUnsettled() {
+        addEvent(WAKE_UNSETTLED, 0, 0, 0);
+    }
+
+    void recordSetBubbleHeld(int index, boolean held) {
+        addEvent(SET_HELD, index, held ? 1 : 0, 0);
+    }
+
+    void recordSetBubbleGroup(int index, int group) {
+        addEvent(SET_GROUP, index, group, 0);
+    }
+
+    /**
+     * Records the forces as they are now. With {@code wake} the replay wakes every bubble at once,
+     * otherwise on the next step.
+     */
+    void recordSetForces(List<BubbleForce> forces, boolean wake) {
+        addEvent(SET_FORCES, mForceSets.size(), wake ? 1 : 0, 0);
+        mForceSets.add(copyForces(forces));
+    }
+
+    void recordStep(long dtNanos) {
+        addEvent(STEP, 0, dtNanos, 0);
+    }
+
+    private static List<BubbleForce> copyForces(List<BubbleForce> forces) {
+        List<BubbleForce> copies = new ArrayList<>(forces.size());
+        for (int f = 0; f < forces.size(); f++) {
+            copies.add(forces.get(f).copy());
+        }
+        return copies;
+    }
+
+    private void setFloats(int k, float a, float b, float c, float d) {
+        int f = k * FLOATS_PER_EVENT;
+        mFloats[f] = a;
+        mFloats[f + 1] = b;
+        mFloats[f + 2] = c;
+        mFloats[f + 3] = d;
+    }
+
+    private int addEvent(int type, int intArg, long longArg, double doubleArg) {
+        if (mEventCount == mTypes.length) {
+            int capacity = mTypes.length * 2;
+            mTypes = Arrays.copyOf(mTypes, capacity);
+            mInts = Arrays.copyOf(mInts, capacity);
+            mLongs = Arrays.copyOf(mLongs, capacity);
+            mDoubles = Arrays.copyOf(mDoubles, capacity);
+            mFloats = Arrays.copyOf(mFloats, capacity * FLOATS_PER_EVENT);
+        }
+        int k = mEventCount++;
+        mTypes[k] = type;
+        mInts[k] = intArg;
+        mLongs[k] = longArg;
+        mDoubles[k] = doubleArg;
+        Arrays.fill(mFloats, k * FLOATS_PER_EVENT, (k + 1) * FLOATS_PER_EVENT, 0);
+        if (type == STEP) {
+            mFrameCount++;
+        }
+        return k;
+    }
+}
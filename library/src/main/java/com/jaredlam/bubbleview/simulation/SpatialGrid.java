@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid broadphase. Cells are at least as wide as the largest bubble, so two bubbles can
+ * only touch when they sit in the same or in adjacent cells. The grid is rebuilt every step with a
+ * counting sort and reuses its buffers, so building and querying it does not allocate once the
+ * buffers have grown to fit.
+ */
+class SpatialGrid {
+
+    private static final int MIN_CELLS = 64;
+
+    private float mOriginX;
+    private float mOriginY;
+    private float mCellSize;
+    private int mColumns;
+    private int mRows;
+
+    // Bubble indices sorted by cell; the bubbles of cell c are mItems[mCellStart[c]..mCellStart[c + 1]).
+    private int[] mCellStart = new int[MIN_CELLS + 1];
+    private int[] mItems = new int[0];
+    private int[] mItemCell = new int[0];
+
+    private int[] mPairs = new int[0];
+    private int[] mQueryResults = new int[0];
+
+    /**
+     * Sorts every included bubble into its cell.
+     */
+    void build(float[] x, float[] y, float[] radius, boolean[] include, int count) {
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        float maxRadius = 0;
+        int included = 0;
+        for (int i = 0; i < count; i++) {
+            if (!include[i]) {
+                continue;
+            }
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+            maxRadius = Math.max(maxRadius, radius[i]);
+            included++;
+        }
+
+        if (mItemCell.length < count) {
+            mItemCell = new int[Math.max(count, mItemCell.length * 2)];
+            mItems = new int[mItemCell.length];
+        }
+        if (included == 0) {
+            mColumns = 0;
+            mRows = 0;
+            Arrays.fill(mItemCell, 0, count, -1);
+            return;
+        }
+
+        float cellSize = Math.max(maxRadius * 2, 1f);
+        int maxCells = Math.max(MIN_CELLS, included * 2);
+        while (((maxX - minX) / cellSize + 1) * ((maxY - minY) / cellSize + 1) > maxCells) {
+            cellSize *= 2;
+        }
+        mOriginX = minX;
+        mOriginY = minY;
+        mCellSize = cellSize;
+        mColumns = (int) ((maxX - minX) / cellSize) + 1;
+        mRows = (int) ((maxY - minY) / cellSize) + 1;
+
+        int cells = mColumns * mRows;
+        if (mCellStart.length < cells + 1) {
+            mCellStart = new int[Math.max(cells + 1, mCellStart.length * 2)];
+        }
+        Arrays.fill(mCellStart, 0, cells + 1, 0);
+        for (int i = 0; i < count; i++) {
+            if (!include[i]) {
+                mItemCell[i] = -1;
+                continue;
+            }
+            int cell = row(y[i]) * mColumns + column(x[i]);
+            mItemCell[i] = cell;
+            mCellStart[cell + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            mCellStart[c + 1] += mCellStart[c];
+        }
+        // Fill back to front so each cell keeps its bubbles in ascending index order.
+        for (int i = count - 1; i >= 0; i--) {
+            int cell = mItemCell[i];
+            if (cell >= 0) {
+                int slot = mCellStart[cell + 1] - 1;
+                mItems[slot] = i;
+                mCellStart[cell + 1] = slot;
+            }
+        }
+        // Each mCellStart[c + 1] now holds the start of cell c; shift them into place.
+        System.arraycopy(mCellStart, 1, mCellStart, 0, cells);
+        mCellStart[cells] = included;
+    }
+
+    /**
+     * Collects every pair of bubbles sharing a cell or sitting in neighbouring cells. Returns the
+     * number of pairs; pair k is ({@code getPairs()[2k]}, {@code getPairs()[2k + 1]}).
+     */
+    int findCandidatePairs() {
+        int pairCount = 0;
+        for (int row = 0; row < mRows; row++) {
+            for (int column = 0; column < mColumns; column++) {
+                int cell = row * mColumns + column;
+                int start = mCellStart[cell];
+                int end = mCellStart[cell + 1];
+                for (int a = start; a < end; a++) {
+                    int first = mItems[a];
+                    for (int b = a + 1; b < end; b++) {
+                        pairCount = addPair(pairCount, first, mItems[b]);
+                    }
+                    // Only look at the forward half of the neighbourhood so each pair is seen once.
+                    pairCount = addCellPairs(pairCount, first, column + 1, row);
+                    pairCount = addCellPairs(pairCount, first, column - 1, row + 1);
+                    pairCount = addCellPairs(pairCount, first, column, row + 1);
+                    pairCount = addCellPairs(pairCount, first, column + 1, row + 1);
+                }
+            }
+        }
+        return pairCount;
+    }
+
+    int[] getPairs() {
+        return mPairs;
+    }
+
+    /**
+     * Collects every bubble that can touch the given box as it was when the grid was built,
+     * including bubbles in the ring of cells around it. Returns the number found; they are
+     * {@code getQueryResults()[0..count)}.
+     */
+    int query(float minX, float minY, float maxX, float maxY) {
+        if (mColumns == 0) {
+            return 0;
+        }
+        int firstColumn = Math.max(column(minX) - 1, 0);
+        int lastColumn = Math.min(column(maxX) + 1, mColumns - 1);
+        int firstRow = Math.max(row(minY) - 1, 0);
+        int lastRow = Math.min(row(maxY) + 1, mRows - 1);
+        int count = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * mColumns + column;
+                for (int b = mCellStart[cell]; b < mCellStart[cell + 1]; b++) {
+                    if (count == mQueryResults.length) {
+                        mQueryResults = Arrays.copyOf(mQueryResults, Math.max(16, count * 2));
+                    }
+                    mQueryResults[count++] = mItems[b];
+                }
+            }
+        }
+        return count;
+    }
+
+    int[] getQueryResults() {
+        return mQueryResults;
+    }
+
+    float getCellSize() {
+        return mCellSize;
+    }
+
+    private int addCellPairs(int pairCount, int first, int column, int row) {
+        if (column < 0 || column >= mColumns || row >= mRows) {
+            return pairCount;
+        }
+        int cell = row * mColumns + column;
+        for (int b = mCellStart[cell]; b < mCellStart[cell + 1]; b++) {
+            pairCount = addPair(pairCount, first, mItems[b]);
+        }
+        return pairCount;
+    }
+
+    private int addPair(int pairCount, int first, int second) {
+        if (mPairs.length < (pairCount + 1) * 2) {
+            mPairs = Arrays.copyOf(mPairs, Math.max(64, mPairs.length * 2));
+        }
+        mPairs[pairCount * 2] = first;
+        mPairs[pairCount * 2 + 1] = second;
+        return pairCount + 1;
+    }
+
+    private int column(float x) {
+        return clamp((int) ((x - mOriginX) / mCellSize), mColumns);
+    }
+
+    private int row(float y) {
+        return clamp((int) ((y - mOriginY) / mCellSize), mRows);
+    }
+
+    private static int clamp(int value, int size) {
+        return value < 0 ? 0 : (value >= size ? size - 1 : value);
+    }
+}
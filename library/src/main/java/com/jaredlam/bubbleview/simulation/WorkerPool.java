@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Fixed set of daemon threads that split a range of work with the calling thread. The caller
+ * takes the first chunk and returns once every chunk is done. Running a task does not allocate.
+ */
+class WorkerPool {
+
+    interface Task {
+        void run(int start, int end, int worker);
+    }
+
+    private final int mWorkerCount;
+    private final Thread[] mThreads;
+    private final CyclicBarrier mStart;
+    private final CyclicBarrier mEnd;
+
+    private Task mTask;
+    private int mCount;
+    private volatile Throwable mFailure;
+    private volatile boolean mShutdown;
+
+    /**
+     * @param workerCount number of chunks work is split into, the calling thread included
+     */
+    WorkerPool(int workerCount) {
+        mWorkerCount = workerCount;
+        mStart = new CyclicBarrier(workerCount);
+        mEnd = new CyclicBarrier(workerCount);
+        mThreads = new Thread[workerCount - 1];
+        for (int i = 0; i < mThreads.length; i++) {
+            final int worker = i + 1;
+            mThreads[i] = new Thread("BubbleSimulation worker " + worker) {
+                @Override
+                public void run() {
+                    work(worker);
+                }
+            };
+            mThreads[i].setDaemon(true);
+            mThreads[i].start();
+        }
+    }
+
+    int getWorkerCount() {
+        return mWorkerCount;
+    }
+
+    /**
+     * Runs {@code task} over [0, count) split into one contiguous chunk per worker, in ascending
+     * order of worker index.
+     */
+    void run(Task task, int count) {
+        mTask = task;
+        mCount = count;
+        await(mStart);
+        try {
+            runChunk(0);
+        } finally {
+            await(mEnd);
+            mTask = null;
+        }
+        Throwable failure = mFailure;
+        if (failure != null) {
+            mFailure = null;
+            throw new RuntimeException("Simulation worker failed", failure);
+        }
+    }
+
+    void shutdown() {
+        mShutdown = true;
+        for (Thread thread : mThreads) {
+            thread.interrupt();
+        }
+    }
+
+    private void work(int worker) {
+        while (!mShutdown) {
+            try {
+                mStart.await();
+                try {
+                    runChunk(worker);
+                } catch (RuntimeException | Error e) {
+                    mFailure = e;
+                }
+                mEnd.await();
+            } catch (InterruptedException | BrokenBarrierException e) {
+                return;
+            }
+        }
+    }
+
+    private void runChunk(int worker) {
+        int chunk = (mCount + mWorkerCount - 1) / mWorkerCount;
+        int start = Math.min(worker * chunk, mCount);
+        int end = Math.min(start + chunk, mCount);
+        if (start < end) {
+            mTask.run(start, end, worker);
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while stepping in parallel", e);
+        } catch (BrokenBarrierException e) {
+            throw new IllegalStateException("Simulation workers were shut down", e);
+        }
+    }
+}
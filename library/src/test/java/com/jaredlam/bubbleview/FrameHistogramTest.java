@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameHistogramTest {
+
+    private static final long MILLIS = 1000L * 1000;
+    // Samples sit inside a bucket, and percentiles report its upper edge.
+    private static final long OFFSET = 100L * 1000;
+    private static final long EDGE = FrameHistogram.BUCKET_NANOS;
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        FrameHistogram histogram = new FrameHistogram();
+        assertEquals(0, histogram.getSampleCount());
+        assertEquals(0, histogram.getP50Nanos());
+    }
+
+    @Test
+    public void percentilesOfKnownFrames() {
+        FrameHistogram histogram = new FrameHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * MILLIS + OFFSET);
+        }
+        assertEquals(100, histogram.getSampleCount());
+        assertEquals(50 * MILLIS + EDGE, histogram.getP50Nanos());
+        assertEquals(90 * MILLIS + EDGE, histogram.getPercentileNanos(0.9f));
+        assertEquals(95 * MILLIS + EDGE, histogram.getP95Nanos());
+        assertEquals(99 * MILLIS + EDGE, histogram.getP99Nanos());
+        assertEquals(MILLIS + EDGE, histogram.getPercentileNanos(0));
+    }
+
+    @Test
+    public void longFramesReportTheMaximum() {
+        FrameHistogram histogram = new FrameHistogram();
+        histogram.record(10 * MILLIS);
+        histogram.record(500 * MILLIS);
+        assertEquals(FrameHistogram.MAX_NANOS, histogram.getP99Nanos());
+    }
+
+    @Test
+    public void oldestFramesLeaveTheWindow() {
+        FrameHistogram histogram = new FrameHistogram();
+        for (int i = 0; i < FrameHistogram.WINDOW_SIZE; i++) {
+            histogram.record(MILLIS + OFFSET);
+        }
+        // Half the window is replaced by slower frames.
+        for (int i = 0; i < FrameHistogram.WINDOW_SIZE / 2; i++) {
+            histogram.record(10 * MILLIS + OFFSET);
+        }
+        assertEquals(FrameHistogram.WINDOW_SIZE, histogram.getSampleCount());
+        assertEquals(MILLIS + EDGE, histogram.getP50Nanos());
+        assertEquals(10 * MILLIS + EDGE, histogram.getPercentileNanos(0.51f));
+
+        // And then all of it.
+        for (int i = 0; i < FrameHistogram.WINDOW_SIZE / 2; i++) {
+            histogram.record(10 * MILLIS + OFFSET);
+        }
+        assertEquals(FrameHistogram.WINDOW_SIZE, histogram.getSampleCount());
+        assertEquals(10 * MILLIS + EDGE, histogram.getPercentileNanos(0));
+        assertEquals(10 * MILLIS + EDGE, histogram.getP99Nanos());
+    }
+
+    @Test
+    public void clearEmptiesTheWindow() {
+        FrameHistogram histogram = new FrameHistogram();
+        histogram.record(5 * MILLIS);
+        histogram.clear();
+        assertEquals(0, histogram.getSampleCount());
+        assertEquals(0, histogram.getP99Nanos());
+        histogram.record(2 * MILLIS + OFFSET);
+        assertEquals(2 * MILLIS + EDGE, histogram.getP50Nanos());
+    }
+}
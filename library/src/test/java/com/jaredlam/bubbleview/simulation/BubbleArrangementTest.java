@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BubbleArrangementTest {
+
+    @Test
+    public void readBackMatchesWritten() throws IOException {
+        BubbleArrangement arrangement = new BubbleArrangement(400, 1600,
+                new float[]{10.5f, 200, 389.25f}, new float[]{20, 800.125f, 1590}, new float[]{10, 20.5f, 10},
+                false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        arrangement.writeTo(out);
+        BubbleArrangement readBack = BubbleArrangement.readFrom(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(400, readBack.getWidth(), 0);
+        assertEquals(1600, readBack.getHeight(), 0);
+        assertFalse(readBack.isConverged());
+        assertEquals(3, readBack.getBubbleCount());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(arrangement.getX(i), readBack.getX(i), 0);
+            assertEquals(arrangement.getY(i), readBack.getY(i), 0);
+            assertEquals(arrangement.getRadius(i), readBack.getRadius(i), 0);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void readingOtherDataFails() throws IOException {
+        BubbleArrangement.readFrom(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchedCoordinatesAreRejected() {
+        new BubbleArrangement(100, 100, new float[2], new float[2], new float[3], true);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Packs bubbles of mixed sizes and checks that every one is placed and none overlap.
+ */
+public class BubblePlacementTest {
+
+    private static final float EPSILON = 0.01f;
+
+    @Test
+    public void packsWithoutOverlap() {
+        for (int count : new int[]{1, 2, 3, 50, 1000}) {
+            BubbleSimulation simulation = mixedBubbles(count, 11);
+            BubblePlacement placement = new BubblePlacement();
+            placement.place(simulation, indices(count), count, 0, 0, true);
+            assertPacked(simulation, 0, count + " bubbles");
+        }
+    }
+
+    @Test
+    public void packsEqualBubblesWithoutOverlap() {
+        // Equal bubbles leave many pairs equally close to the center.
+        BubbleSimulation simulation = new BubbleSimulation();
+        for (int i = 0; i < 500; i++) {
+            simulation.addBubble(25, 0, 0);
+        }
+        BubblePlacement placement = new BubblePlacement();
+        placement.setPadding(4);
+        placement.place(simulation, indices(500), 500, 0, 0, true);
+        assertPacked(simulation, 4, "equal");
+    }
+
+    @Test
+    public void keepsThePaddingBetweenBubbles() {
+        BubbleSimulation simulation = mixedBubbles(200, 12);
+        BubblePlacement placement = new BubblePlacement();
+        placement.setPadding(6);
+        placement.place(simulation, indices(200), 200, 500, 500, true);
+        assertPacked(simulation, 6, "padded");
+    }
+
+    @Test
+    public void addsBubblesAroundAPlacedPack() {
+        BubbleSimulation simulation = mixedBubbles(300, 13);
+        BubblePlacement placement = new BubblePlacement();
+        placement.place(simulation, indices(100), 100, 0, 0, true);
+        placement.place(simulation, indices(300), 300, 0, 0, false);
+        assertPacked(simulation, 0, "added later");
+    }
+
+    private static BubbleSimulation mixedBubbles(int count, long seed) {
+        Random random = new Random(seed);
+        BubbleSimulation simulation = new BubbleSimulation();
+        for (int i = 0; i < count; i++) {
+            // Mostly small bubbles with the odd large one.
+            float radius = random.nextInt(10) == 0 ? 60 + random.nextFloat() * 60 : 5 + random.nextFloat() * 30;
+            simulation.addBubble(radius, 0, 0);
+        }
+        return simulation;
+    }
+
+    private static int[] indices(int count) {
+        int[] indices = new int[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = i;
+        }
+        return indices;
+    }
+
+    private static void assertPacked(BubbleSimulation simulation, float padding, String message) {
+        int count = simulation.getBubbleCount();
+        for (int i = 0; i < count; i++) {
+            assertTrue(message + ": bubble " + i + " not placed", simulation.isPlaced(i));
+        }
+        for (int a = 0; a < count; a++) {
+            for (int b = a + 1; b < count; b++) {
+                float dx = simulation.getX(b) - simulation.getX(a);
+                float dy = simulation.getY(b) - simulation.getY(a);
+                float gap = (float) Math.sqrt(dx * dx + dy * dy) - simulation.getRadius(a) - simulation.getRadius(b);
+                assertTrue(message + ": bubbles " + a + " and " + b + " are " + gap + " apart",
+                        gap >= padding - EPSILON);
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Headless checks of the step function.
+ */
+public class BubbleSimulationTest {
+
+    private static final long FRAME_NANOS = 16L * 1000 * 1000;
+    private static final long NANOS_PER_SECOND = 1000L * 1000 * 1000;
+
+    @Test
+    public void undampedBubblesKeepCruising() {
+        BubbleSimulation simulation = scatteredBubbles(30, 20000, 50000);
+        step(simulation, 600);
+        assertTrue(simulation.isMoving());
+        assertEquals(0, simulation.getSleepingCount());
+    }
+
+    @Test
+    public void dampedBubblesFallAsleep() {
+        BubbleSimulation simulation = scatteredBubbles(30, 20000, 50000);
+        simulation.setDamping(2);
+        int steps = stepUntilResting(simulation, 2000);
+        assertTrue("still moving after " + steps + " steps", steps < 2000);
+        assertEquals(30, simulation.getSleepingCount());
+    }
+
+    @Test
+    public void pileUnderGravityAndDragComesToRest() {
+        assertPileComesToRest(1, 1, 1);
+        assertPileComesToRest(5, 2, 1);
+    }
+
+    @Test
+    public void parallelPileUnderGravityAndDragComesToRest() {
+        assertPileComesToRest(1, 1, 3);
+    }
+
+    private static void assertPileComesToRest(float gravity, float drag, int workers) {
+        BubbleSimulation simulation = scatteredBubbles(100, 50, 150);
+        simulation.setParallelism(workers, 1);
+        simulation.addForce(new CenterGravity(gravity));
+        simulation.addForce(new LinearDrag(drag));
+        try {
+            int steps = stepUntilResting(simulation, 3000);
+            assertTrue("pile still moving after " + steps + " steps", steps < 3000);
+            assertEquals(100, simulation.getSleepingCount());
+        } finally {
+            simulation.releaseWorkers();
+        }
+    }
+
+    @Test
+    public void changingAForceWakesRestingBubbles() {
+        BubbleSimulation simulation = scatteredBubbles(30, 50, 150);
+        CenterGravity gravity = new CenterGravity(1);
+        simulation.addForce(gravity);
+        simulation.addForce(new LinearDrag(1));
+        assertTrue(stepUntilResting(simulation, 3000) < 3000);
+
+        gravity.setCenter(200, 200);
+        assertTrue(simulation.isMoving());
+        simulation.step(FRAME_NANOS);
+        assertEquals(0, simulation.getSleepingCount());
+        assertTrue(stepUntilResting(simulation, 3000) < 3000);
+        float x = 0;
+        for (int i = 0; i < simulation.getBubbleCount(); i++) {
+            x += simulation.getX(i);
+        }
+        assertTrue(x / simulation.getBubbleCount() < 500);
+    }
+
+    @Test
+    public void bubblesRestoredIntoOtherAspectRatioMakeRoom() {
+        BubbleSimulation saved = new BubbleSimulation();
+        saved.setBounds(0, 0, 1000, 600);
+        int[] order = new int[40];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = saved.indexOf(saved.addBubble(20 + i % 3 * 10, 0, 0));
+        }
+        new BubblePlacement().place(saved, order, order.length, 500, 300, true);
+
+        // Restored the way BubbleLayout does after a rotation: asleep, scaled about the center by
+        // the one factor that fits the old world into the new one.
+        BubbleSimulation restored = new BubbleSimulation();
+        restored.setBounds(0, 0, 600, 1000);
+        float scale = Math.min(600 / 1000f, 1000 / 600f);
+        for (int i = 0; i < order.length; i++) {
+            int index = restored.indexOf(restored.addBubble(saved.getRadius(i), 0, 0));
+            restored.setBubbleState(index, 300 + (saved.getX(i) - 500) * scale, 500 + (saved.getY(i) - 300) * scale,
+                    0, 0, 0, true);
+        }
+        assertTrue(restored.getMaxOverlap() > 10);
+        assertFalse(restored.isMoving());
+
+        restored.wakeUnsettled();
+        assertTrue(restored.isMoving());
+        assertTrue(stepUntilResting(restored, 3000) < 3000);
+        assertTrue("overlap " + restored.getMaxOverlap(), restored.getMaxOverlap() <= 1);
+    }
+
+    @Test
+    public void sleepingBubbleWakesOnContact() {
+        BubbleSimulation simulation = new BubbleSimulation();
+        simulation.setBounds(0, 0, 1000, 1000);
+        int sleeper = simulation.addBubble(30, 0, 0);
+        simulation.setBubbleState(sleeper, 700, 500, 0, 0, 0, true);
+        int mover = simulation.addBubble(30, 0, 400);
+        simulation.setBubblePosition(mover, 300, 500);
+        assertTrue(simulation.isSleeping(sleeper));
+
+        step(simulation, 60);
+        assertFalse(simulation.isSleeping(sleeper));
+        assertTrue(simulation.getX(sleeper) > 700);
+        assertTrue(simulation.getVelocityX(sleeper) > 0);
+    }
+
+    @Test
+    public void fastBubbleDoesNotTunnelThroughWall() {
+        BubbleSimulation simulation = new BubbleSimulation();
+        simulation.setBounds(0, 0, 1000, 1000);
+        int bubble = simulation.addBubble(20, 0, 50000);
+        simulation.setBubblePosition(bubble, 900, 500);
+
+        simulation.step(BubbleSimulation.MAX_STEP_NANOS);
+        float x = simulation.getX(bubble);
+        assertTrue("left the bounds at " + x, x - 20 >= 0 && x + 20 <= 1000);
+        // 2500 pixels in a 1000 pixel box: it has to rebound off both sides.
+        assertTrue(simulation.getBounceCount() >= 2);
+    }
+
+    @Test
+    public void fastBubbleDoesNotTunnelThroughBubble() {
+        BubbleSimulation simulation = new BubbleSimulation();
+        simulation.setBounds(0, 0, 10000, 1000);
+        int target = simulation.addBubble(20, 0, 0);
+        simulation.setBubbleState(target, 500, 500, 0, 0, 0, false);
+        int bullet = simulation.addBubble(20, 0, 50000);
+        simulation.setBubblePosition(bullet, 100, 500);
+
+        simulation.step(BubbleSimulation.MAX_STEP_NANOS);
+        float bulletX = simulation.getX(bullet);
+        float targetX = simulation.getX(target);
+        assertTrue("passed through: " + bulletX + " vs " + targetX, bulletX < targetX);
+        assertTrue("overlap of " + (40 - (targetX - bulletX)), targetX - bulletX >= 40 - 0.01f);
+        assertTrue(simulation.getVelocityX(target) > 0);
+    }
+
+    @Test
+    public void parallelStepDoesNotDependOnWorkerCount() {
+        float[] expected = null;
+        for (int workers = 2; workers <= 5; workers++) {
+            BubbleSimulation simulation = scatteredBubbles(1500, 100, 2000);
+            simulation.setParallelism(workers, 0);
+            try {
+                step(simulation, 200);
+            } finally {
+                simulation.releaseWorkers();
+            }
+            assertTrue(simulation.getCollisionCount() > 0);
+            float[] state = state(simulation);
+            if (expected == null) {
+                expected = state;
+                continue;
+            }
+            for (int k = 0; k < state.length; k++) {
+                assertEquals(workers + " workers, value " + k,
+                        Float.floatToIntBits(expected[k]), Float.floatToIntBits(state[k]));
+            }
+        }
+    }
+
+    @Test
+    public void findBubbleAtFollowsBubblesBetweenGridBuilds() {
+        BubbleSimulation simulation = new BubbleSimulation();
+        simulation.setBounds(0, 0, 1000, 1000);
+        // The other bubbles set the grid's origin so that the first sits at the far edge of its
+        // cell, from where it moves most of a cell further in one step.
+        int mover = simulation.addBubble(20, 0, 30 * NANOS_PER_SECOND / FRAME_NANOS);
+        simulation.setBubblePosition(mover, 100, 500);
+        simulation.setBubblePosition(simulation.addBubble(20, 0, 0), 61, 700);
+        simulation.setBubblePosition(simulation.addBubble(20, 0, 0), 361, 700);
+        simulation.step(FRAME_NANOS);
+        assertEquals(130, simulation.getX(mover), 0.01f);
+        assertEquals(mover, simulation.findBubbleAt(149, 500));
+        assertEquals(-1, simulation.findBubbleAt(100, 500));
+
+        simulation.setBubblePosition(mover, 700, 200);
+        assertEquals(mover, simulation.findBubbleAt(715, 200));
+    }
+
+    @Test
+    public void findBubbleAtMatchesScanWhileBubblesMove() {
+        BubbleSimulation simulation = scatteredBubbles(200, 100, 3000);
+        Random random = new Random(9);
+        for (int round = 0; round < 20; round++) {
+            simulation.step(FRAME_NANOS);
+            for (int k = 0; k < 200; k++) {
+                float x = random.nextFloat() * 1000;
+                float y = random.nextFloat() * 1000;
+                assertEquals(findByScan(simulation, x, y), simulation.findBubbleAt(x, y));
+            }
+        }
+    }
+
+    private static int findByScan(BubbleSimulation simulation, float x, float y) {
+        int found = -1;
+        float nearest = Float.MAX_VALUE;
+        for (int i = 0; i < simulation.getBubbleCount(); i++) {
+            float dx = simulation.getX(i) - x;
+            float dy = simulation.getY(i) - y;
+            float distanceSquared = dx * dx + dy * dy;
+            float radius = simulation.getRadius(i);
+            if (distanceSquared <= radius * radius && distanceSquared < nearest) {
+                found = i;
+                nearest = distanceSquared;
+            }
+        }
+        return found;
+    }
+
+    private static float[] state(BubbleSimulation simulation) {
+        float[] state = new float[simulation.getBubbleCount() * 4];
+        for (int i = 0; i < simulation.getBubbleCount(); i++) {
+            state[i * 4] = simulation.getX(i);
+            state[i * 4 + 1] = simulation.getY(i);
+            state[i * 4 + 2] = simulation.getVelocityX(i);
+            state[i * 4 + 3] = simulation.getVelocityY(i);
+        }
+        return state;
+    }
+
+    /**
+     * Returns count bubbles on a grid in a 1000 pixel square, heading in random directions.
+     */
+    static BubbleSimulation scatteredBubbles(int count, int minSpeed, int maxSpeed) {
+        Random random = new Random(5);
+        BubbleSimulation simulation = new BubbleSimulation();
+        simulation.setBounds(0, 0, 1000, 1000);
+        int columns = (int) Math.ceil(Math.sqrt(count));
+        float spacing = 1000f / columns;
+        for (int i = 0; i < count; i++) {
+            float radius = 10 + random.nextFloat() * spacing / 4;
+            int index = simulation.indexOf(simulation.addBubble(radius, random.nextDouble() * 2 * Math.PI,
+                    minSpeed + random.nextInt(maxSpeed - minSpeed + 1)));
+            simulation.setBubblePosition(index, (i % columns + 0.5f) * spacing, (i / columns + 0.5f) * spacing);
+        }
+        return simulation;
+    }
+
+    static void step(BubbleSimulation simulation, int steps) {
+        for (int s = 0; s < steps; s++) {
+            simulation.step(FRAME_NANOS);
+        }
+    }
+
+    /**
+     * Steps until nothing moves any more, at most {@code maxSteps} times, and returns the number of
+     * steps taken.
+     */
+    static int stepUntilResting(BubbleSimulation simulation, int maxSteps) {
+        int steps = 0;
+        while (simulation.isMoving() && steps < maxSteps) {
+            simulation.step(FRAME_NANOS);
+            steps++;
+        }
+        return steps;
+    }
+}
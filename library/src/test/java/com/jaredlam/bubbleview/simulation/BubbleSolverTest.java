@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BubbleSolverTest {
+
+    private static final float TOLERANCE = BubbleSolver.DEFAULT_TOLERANCE;
+
+    @Test
+    public void settlesBubblesThatFit() {
+        float[] radii = radii(150);
+        BubbleSolver solver = new BubbleSolver();
+        BubbleArrangement arrangement = solver.solve(radii, radii.length, 800, 800);
+
+        assertTrue(arrangement.isConverged());
+        assertSettled(arrangement, radii);
+    }
+
+    @Test
+    public void settlesBubblesUnderForces() {
+        float[] radii = radii(100);
+        BubbleSolver solver = new BubbleSolver();
+        solver.addForce(new CenterGravity(2));
+        solver.addForce(new LinearDrag(2));
+        BubbleArrangement arrangement = solver.solve(radii, radii.length, 800, 800);
+
+        assertTrue(arrangement.isConverged());
+        assertTrue(solver.getStepCount() > 0);
+        assertSettled(arrangement, radii);
+    }
+
+    @Test
+    public void settlesTallContainer() {
+        // The pack is stretched to the container's shape and has to spread along it.
+        float[] radii = radii(180);
+        BubbleSolver solver = new BubbleSolver();
+        BubbleArrangement arrangement = solver.solve(radii, radii.length, 400, 1600);
+
+        assertTrue("not settled after " + solver.getStepCount() + " steps", arrangement.isConverged());
+        assertTrue(solver.getStepCount() < BubbleSolver.DEFAULT_MAX_STEPS);
+        assertSettled(arrangement, radii);
+    }
+
+    @Test
+    public void overfullContainerIsNotConverged() {
+        float[] radii = radii(300);
+        BubbleSolver solver = new BubbleSolver();
+        solver.setMaxSteps(100);
+        BubbleArrangement arrangement = solver.solve(radii, radii.length, 300, 300);
+
+        assertFalse(arrangement.isConverged());
+        assertEquals(100, solver.getStepCount());
+        assertEquals(radii.length, arrangement.getBubbleCount());
+    }
+
+    @Test
+    public void emptyInputIsConverged() {
+        BubbleSolver solver = new BubbleSolver();
+        BubbleArrangement arrangement = solver.solve(new float[0], 0, 400, 300);
+
+        assertTrue(arrangement.isConverged());
+        assertEquals(0, arrangement.getBubbleCount());
+        assertEquals(0, solver.getStepCount());
+        assertEquals(400, arrangement.getWidth(), 0);
+        assertEquals(300, arrangement.getHeight(), 0);
+    }
+
+    @Test
+    public void arrangementKeepsRadii() {
+        float[] radii = radii(20);
+        BubbleArrangement arrangement = new BubbleSolver().solve(radii, radii.length, 600, 600);
+        for (int i = 0; i < radii.length; i++) {
+            assertEquals(radii[i], arrangement.getRadius(i), 0);
+        }
+    }
+
+    @Test
+    public void bubblesGrownSinceTheyWereArrangedMakeRoom() {
+        float[] radii = radii(60);
+        BubbleArrangement arrangement = new BubbleSolver().solve(radii, radii.length, 800, 800);
+
+        // Applied the way BubbleLayout does: asleep where the radius still matches, then the
+        // unsettled bubbles are woken.
+        BubbleSimulation simulation = new BubbleSimulation();
+        simulation.setBounds(0, 0, 800, 800);
+        for (int i = 0; i < radii.length; i++) {
+            float radius = i % 4 == 0 ? radii[i] * 1.5f : radii[i];
+            int index = simulation.indexOf(simulation.addBubble(radius, 0, 0));
+            simulation.setBubbleState(index, arrangement.getX(i), arrangement.getY(i), 0, 0, 0,
+                    radius == arrangement.getRadius(i));
+        }
+        simulation.wakeUnsettled();
+
+        assertTrue(BubbleSimulationTest.stepUntilResting(simulation, 3000) < 3000);
+        assertTrue("overlap " + simulation.getMaxOverlap(), simulation.getMaxOverlap() <= TOLERANCE);
+    }
+
+    private static float[] radii(int count) {
+        Random random = new Random(3);
+        float[] radii = new float[count];
+        for (int i = 0; i < count; i++) {
+            radii[i] = 15 + random.nextInt(26);
+        }
+        return radii;
+    }
+
+    private static void assertSettled(BubbleArrangement arrangement, float[] radii) {
+        assertEquals(radii.length, arrangement.getBubbleCount());
+        for (int i = 0; i < radii.length; i++) {
+            float x = arrangement.getX(i);
+            float y = arrangement.getY(i);
+            assertTrue("bubble " + i + " outside", x - radii[i] >= -TOLERANCE && y - radii[i] >= -TOLERANCE
+                    && x + radii[i] <= arrangement.getWidth() + TOLERANCE
+                    && y + radii[i] <= arrangement.getHeight() + TOLERANCE);
+            for (int j = i + 1; j < radii.length; j++) {
+                float distance = (float) Math.hypot(arrangement.getX(j) - x, arrangement.getY(j) - y);
+                assertTrue("bubbles " + i + " and " + j + " overlap", distance >= radii[i] + radii[j] - TOLERANCE);
+            }
+        }
+    }
+}
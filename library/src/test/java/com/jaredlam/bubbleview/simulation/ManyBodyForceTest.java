@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ManyBodyForceTest {
+
+    @Test
+    public void barnesHutWithZeroThetaMatchesPairwiseSum() {
+        BubbleSimulation simulation = BubbleSimulationTest.scatteredBubbles(300, 0, 100);
+        // Two bubbles at the same spot end up in one leaf at the deepest level.
+        simulation.setBubblePosition(1, simulation.getX(0), simulation.getY(0));
+
+        ManyBodyForce force = new ManyBodyForce(-500);
+        force.setTheta(0);
+        force.setBarnesHutMinBubbles(0);
+        assertSameAccelerations(direct(simulation, -500), accelerations(simulation, force), 1e-4f);
+    }
+
+    @Test
+    public void barnesHutStaysCloseToPairwiseSum() {
+        BubbleSimulation simulation = BubbleSimulationTest.scatteredBubbles(400, 0, 100);
+        ManyBodyForce force = new ManyBodyForce(500);
+        force.setTheta(0.5f);
+        force.setBarnesHutMinBubbles(0);
+
+        float[][] expected = direct(simulation, 500);
+        float[][] actual = accelerations(simulation, force);
+        float error = 0;
+        float magnitude = 0;
+        for (int i = 0; i < simulation.getBubbleCount(); i++) {
+            error += Math.hypot(actual[0][i] - expected[0][i], actual[1][i] - expected[1][i]);
+            magnitude += Math.hypot(expected[0][i], expected[1][i]);
+        }
+        assertTrue("mean error " + error / magnitude, error < 0.05f * magnitude);
+    }
+
+    @Test
+    public void cellHoldingTheBubbleIsNotApproximated() {
+        BubbleSimulation simulation = new BubbleSimulation();
+        simulation.setBounds(0, 0, 1000, 1000);
+        simulation.setBubblePosition(simulation.addBubble(20, 0, 0), 100, 500);
+        simulation.setBubblePosition(simulation.addBubble(20, 0, 0), 900, 500);
+
+        // Seen from either bubble, the root cell is small next to the distance to its center of
+        // area, but holds the bubble itself.
+        ManyBodyForce force = new ManyBodyForce(1000);
+        force.setTheta(100);
+        force.setBarnesHutMinBubbles(0);
+        assertSameAccelerations(direct(simulation, 1000), accelerations(simulation, force), 1e-6f);
+    }
+
+    private static float[][] direct(BubbleSimulation simulation, float strength) {
+        ManyBodyForce force = new ManyBodyForce(strength);
+        force.setBarnesHutMinBubbles(Integer.MAX_VALUE);
+        return accelerations(simulation, force);
+    }
+
+    private static float[][] accelerations(BubbleSimulation simulation, BubbleForce force) {
+        float[] ax = new float[simulation.getBubbleCount()];
+        float[] ay = new float[simulation.getBubbleCount()];
+        force.apply(simulation, ax, ay);
+        return new float[][]{ax, ay};
+    }
+
+    private static void assertSameAccelerations(float[][] expected, float[][] actual, float relativeTolerance) {
+        for (int axis = 0; axis < 2; axis++) {
+            for (int i = 0; i < expected[axis].length; i++) {
+                float tolerance = relativeTolerance * Math.max(1, Math.abs(expected[axis][i]));
+                assertEquals("bubble " + i + ", axis " + axis, expected[axis][i], actual[axis][i], tolerance);
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Scanner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Records a seeded session with touch input and checks that replaying it reproduces every frame,
+ * and that it still matches the golden trace checked in next to this test. After an intended
+ * change to the physics, regenerate the golden trace by running the tests with
+ * {@code -Dbubbleview.updateGoldenTrace=true} and review its diff.
+ */
+public class SimulationTraceTest {
+
+    private static final String GOLDEN_TRACE = "golden_trace.txt";
+    private static final String GOLDEN_TRACE_SOURCE =
+            "src/test/resources/com/jaredlam/bubbleview/simulation/" + GOLDEN_TRACE;
+
+    private static final int BUBBLES = 30;
+    private static final int FRAMES = 300;
+    private static final int GOLDEN_EVERY = 30;
+
+    private SimulationTrace mTrace;
+    private List<float[]> mRecordedFrames;
+
+    @Before
+    public void record() {
+        Random random = new Random(7);
+        BubbleSimulation simulation = new BubbleSimulation();
+        mTrace = simulation.startRecording();
+        simulation.setBounds(0, 0, 600, 900);
+        int[] order = new int[BUBBLES];
+        for (int i = 0; i < BUBBLES; i++) {
+            float radius = 20 + random.nextInt(31);
+            simulation.addBubble(radius, random.nextDouble() * 2 * Math.PI, 100 + random.nextInt(200));
+            order[i] = i;
+        }
+        BubblePlacement placement = new BubblePlacement();
+        placement.setStartRadians(random.nextInt(7));
+        placement.setPadding(10);
+        placement.place(simulation, order, BUBBLES, 300, 450, true);
+
+        mRecordedFrames = new ArrayList<>();
+        for (int frame = 1; frame <= FRAMES; frame++) {
+            if (frame % 60 == 0) {
+                // A fling on a random bubble, the way BubbleLayout lets go of a dragged one.
+                simulation.setBubbleMotion(random.nextInt(BUBBLES), random.nextDouble() * 2 * Math.PI, 800);
+            }
+            // Frame times jitter around 16ms like real vsync callbacks.
+            simulation.step((14 + random.nextInt(7)) * 1000L * 1000);
+            mRecordedFrames.add(positions(simulation));
+        }
+        simulation.stopRecording();
+    }
+
+    @Test
+    public void replayMatchesRecordingFrameForFrame() {
+        assertEquals(FRAMES, mTrace.getFrameCount());
+        final int[] replayedFrames = new int[1];
+        mTrace.replay(new SimulationTrace.ReplayListener() {
+            @Override
+            public void onFrame(int frame, BubbleSimulation simulation) {
+                assertSamePositions("frame " + frame, mRecordedFrames.get(frame - 1), positions(simulation));
+                replayedFrames[0] = frame;
+            }
+        });
+        assertEquals(FRAMES, replayedFrames[0]);
+    }
+
+    @Test
+    public void traceReadBackReplaysTheSame() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mTrace.writeTo(out);
+        SimulationTrace readBack = SimulationTrace.readFrom(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(mTrace.getEventCount(), readBack.getEventCount());
+        assertSamePositions("last frame", mRecordedFrames.get(FRAMES - 1), positions(readBack.replay()));
+    }
+
+    @Test
+    public void matchesGoldenTrace() throws IOException {
+        String trace = formatGoldenTrace();
+        if (Boolean.getBoolean("bubbleview.updateGoldenTrace")) {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(new File(GOLDEN_TRACE_SOURCE)), "UTF-8");
+            try {
+                writer.write(trace);
+            } finally {
+                writer.close();
+            }
+            return;
+        }
+        InputStream golden = getClass().getResourceAsStream(GOLDEN_TRACE);
+        assertNotNull("Missing " + GOLDEN_TRACE_SOURCE, golden);
+        Scanner scanner = new Scanner(golden, "UTF-8").useDelimiter("\\A");
+        try {
+            assertEquals(scanner.hasNext() ? scanner.next() : "", trace);
+        } finally {
+            scanner.close();
+        }
+    }
+
+    @Test
+    public void replayReproducesForcesAndTheirChanges() throws IOException {
+        BubbleSimulation simulation = BubbleSimulationTest.scatteredBubbles(40, 50, 150);
+        LinearDrag drag = new LinearDrag(1);
+        simulation.addForce(drag);
+        SimulationTrace trace = simulation.startRecording();
+        CenterGravity gravity = new CenterGravity(2);
+        List<float[]> frames = new ArrayList<>();
+        for (int frame = 1; frame <= 200; frame++) {
+            if (frame == 20) {
+                simulation.addForce(gravity);
+            } else if (frame == 60) {
+                gravity.setCenter(200, 300);
+                drag.setCoefficient(3);
+            } else if (frame == 120) {
+                simulation.removeForce(gravity);
+                simulation.addForce(new ManyBodyForce(-2000));
+            } else if (frame == 160) {
+                simulation.clearForces();
+            }
+            simulation.step(16L * 1000 * 1000);
+            frames.add(positions(simulation));
+        }
+        simulation.stopRecording();
+        // Changing the forces after recording does not change the trace.
+        drag.setCoefficient(0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        trace.writeTo(out);
+        SimulationTrace readBack = SimulationTrace.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        for (SimulationTrace replayed : new SimulationTrace[]{trace, readBack}) {
+            final List<float[]> expected = frames;
+            replayed.replay(new SimulationTrace.ReplayListener() {
+                @Override
+                public void onFrame(int frame, BubbleSimulation simulation) {
+                    assertSamePositions("frame " + frame, expected.get(frame - 1), positions(simulation));
+                }
+            });
+        }
+    }
+
+    @Test
+    public void parallelReplayReleasesItsWorkers() throws InterruptedException {
+        BubbleSimulation simulation = BubbleSimulationTest.scatteredBubbles(200, 100, 2000);
+        simulation.setParallelism(3, 0);
+        SimulationTrace trace = simulation.startRecording();
+        try {
+            BubbleSimulationTest.step(simulation, 10);
+        } finally {
+            simulation.releaseWorkers();
+        }
+        trace.replay();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (countWorkerThreads() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, countWorkerThreads());
+    }
+
+    private static int countWorkerThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith("BubbleSimulation worker")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotStartRecordingWithCustomForce() {
+        BubbleSimulation simulation = new BubbleSimulation();
+        simulation.addForce(new NoForce());
+        simulation.startRecording();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotAddCustomForceWhileRecording() {
+        BubbleSimulation simulation = new BubbleSimulation();
+        simulation.startRecording();
+        simulation.addForce(new NoForce());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotCopySimulationWithForceThatCannotBeCopied() {
+        BubbleSimulation simulation = new BubbleSimulation();
+        simulation.addForce(new NoForce());
+        simulation.copy();
+    }
+
+    private static class NoForce extends BubbleForce {
+        @Override
+        public void apply(BubbleSimulation simulation, float[] ax, float[] ay) {
+        }
+    }
+
+    private String formatGoldenTrace() {
+        StringBuilder builder = new StringBuilder();
+        for (int frame = GOLDEN_EVERY; frame <= FRAMES; frame += GOLDEN_EVERY) {
+            builder.append("frame ").append(frame).append('\n');
+            float[] positions = mRecordedFrames.get(frame - 1);
+            for (int i = 0; i < positions.length; i += 2) {
+                builder.append(String.format(Locale.US, "  %.2f %.2f\n", positions[i], positions[i + 1]));
+            }
+        }
+        return builder.toString();
+    }
+
+    private static float[] positions(BubbleSimulation simulation) {
+        float[] positions = new float[simulation.getBubbleCount() * 2];
+        for (int i = 0; i < simulation.getBubbleCount(); i++) {
+            positions[i * 2] = simulation.getX(i);
+            positions[i * 2 + 1] = simulation.getY(i);
+        }
+        return positions;
+    }
+
+    private static void assertSamePositions(String message, float[] expected, float[] actual) {
+        assertEquals(message, expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(message + ", value " + i, Float.floatToIntBits(expected[i]), Float.floatToIntBits(actual[i]));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the grid broadphase against brute force: every touching pair must be among the
+ * candidates, and no candidate pair may be reported twice.
+ */
+public class SpatialGridTest {
+
+    @Test
+    public void findsEveryTouchingPairOfMixedSizes() {
+        Random random = new Random(3);
+        int count = 500;
+        float[] x = new float[count];
+        float[] y = new float[count];
+        float[] radius = new float[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = random.nextFloat() * 2000;
+            y[i] = random.nextFloat() * 2000;
+            radius[i] = 2 + random.nextFloat() * 30;
+        }
+        // A few bubbles much larger than the rest, which set the cell size.
+        radius[0] = 400;
+        radius[1] = 250;
+        assertSameTouchingPairs(x, y, radius, count);
+    }
+
+    @Test
+    public void findsPairsAcrossCellBorders() {
+        // Equal bubbles on an exact lattice: every center lies on a cell border and every
+        // bubble touches its four neighbours exactly.
+        int side = 12;
+        int count = side * side;
+        float[] x = new float[count];
+        float[] y = new float[count];
+        float[] radius = new float[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = (i % side) * 20;
+            y[i] = (i / side) * 20;
+            radius[i] = 10;
+        }
+        int touching = assertSameTouchingPairs(x, y, radius, count);
+        assertEquals(2 * side * (side - 1), touching);
+    }
+
+    @Test
+    public void skipsExcludedBubbles() {
+        float[] x = {0, 5, 10};
+        float[] y = {0, 0, 0};
+        float[] radius = {10, 10, 10};
+        boolean[] include = {true, false, true};
+        SpatialGrid grid = new SpatialGrid();
+        grid.build(x, y, radius, include, 3);
+        int pairCount = grid.findCandidatePairs();
+        assertEquals(1, pairCount);
+        assertEquals(0, Math.min(grid.getPairs()[0], grid.getPairs()[1]));
+        assertEquals(2, Math.max(grid.getPairs()[0], grid.getPairs()[1]));
+    }
+
+    /**
+     * Returns the number of touching pairs.
+     */
+    private static int assertSameTouchingPairs(float[] x, float[] y, float[] radius, int count) {
+        boolean[] include = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            include[i] = true;
+        }
+        SpatialGrid grid = new SpatialGrid();
+        grid.build(x, y, radius, include, count);
+        int pairCount = grid.findCandidatePairs();
+        int[] pairs = grid.getPairs();
+
+        Set<Long> candidates = new HashSet<>();
+        Set<Long> touchingCandidates = new HashSet<>();
+        for (int p = 0; p < pairCount; p++) {
+            int a = pairs[p * 2];
+            int b = pairs[p * 2 + 1];
+            assertTrue("pair of a bubble with itself: " + a, a != b);
+            long key = key(a, b);
+            assertTrue("pair reported twice: " + a + ", " + b, candidates.add(key));
+            if (touches(x, y, radius, a, b)) {
+                touchingCandidates.add(key);
+            }
+        }
+
+        Set<Long> touching = new HashSet<>();
+        for (int a = 0; a < count; a++) {
+            for (int b = a + 1; b < count; b++) {
+                if (touches(x, y, radius, a, b)) {
+                    touching.add(key(a, b));
+                }
+            }
+        }
+        assertEquals(touching, touchingCandidates);
+        return touching.size();
+    }
+
+    private static boolean touches(float[] x, float[] y, float[] radius, int a, int b) {
+        float dx = x[b] - x[a];
+        float dy = y[b] - y[a];
+        float radii = radius[a] + radius[b];
+        return dx * dx + dy * dy <= radii * radii;
+    }
+
+    private static long key(int a, int b) {
+        return (long) Math.min(a, b) << 32 | Math.max(a, b);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 Jared Luo
+ * jaredlam86@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jaredlam.bubbleview.simulation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class WorkerPoolTest {
+
+    private WorkerPool mPool;
+
+    @Before
+    public void setUp() {
+        mPool = new WorkerPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Test
+    public void coversTheRangeOnce() {
+        final AtomicIntegerArray visits = new AtomicIntegerArray(1001);
+        mPool.run(new WorkerPool.Task() {
+            @Override
+            public void run(int start, int end, int worker) {
+                for (int i = start; i < end; i++) {
+                    visits.incrementAndGet(i);
+                }
+            }
+        }, visits.length());
+        for (int i = 0; i < visits.length(); i++) {
+            assertEquals("index " + i, 1, visits.get(i));
+        }
+    }
+
+    @Test
+    public void rethrowsWhatAWorkerThrew() {
+        final IllegalStateException thrown = new IllegalStateException("worker 2");
+        try {
+            mPool.run(new WorkerPool.Task() {
+                @Override
+                public void run(int start, int end, int worker) {
+                    if (worker == 2) {
+                        throw thrown;
+                    }
+                }
+            }, 100);
+            fail("worker failure was swallowed");
+        } catch (RuntimeException e) {
+            assertSame(thrown, e.getCause());
+        }
+
+        // The failure is reported once, and the pool keeps working.
+        final AtomicIntegerArray visits = new AtomicIntegerArray(100);
+        mPool.run(new WorkerPool.Task() {
+            @Override
+            public void run(int start, int end, int worker) {
+                for (int i = start; i < end; i++) {
+                    visits.incrementAndGet(i);
+                }
+            }
+        }, visits.length());
+        assertEquals(1, visits.get(99));
+    }
+}